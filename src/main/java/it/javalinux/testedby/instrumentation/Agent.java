@@ -21,20 +21,24 @@
 package it.javalinux.testedby.instrumentation;
 
 import it.javalinux.testedby.metadata.builder.instrumentation.InvocationTracker;
-import it.javalinux.testedby.metadata.impl.Helper;
+import it.javalinux.testedby.metadata.builder.instrumentation.MappedCoverageBuffer;
+import it.javalinux.testedby.metadata.builder.instrumentation.TrackerStats;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
 import java.security.ProtectionDomain;
-import java.util.StringTokenizer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import javassist.ClassPool;
-import javassist.CtBehavior;
-import javassist.CtClass;
-import javassist.Modifier;
 
 /**
  * The agent class that modifies the bytecode of
@@ -52,12 +56,21 @@ public class Agent implements ClassFileTransformer {
 
     private static Logger LOG = Logger.getLogger(Agent.class.getName());
     
-    static String[] includes;
-    static String[] excludes;
-    static String[] classesExcludes;
+    // the configuration of the agent running in this JVM (see premain and agentmain)
+    static AgentConfiguration configuration;
+    
+    private static Instrumentation instrumentation;
+    private static Agent installed;
+    
+    private final ClassInstrumenter instrumenter;
+    private final InstrumentationCache cache;
+    private final ClassPools pools;
+    private final AgentStats stats;
+    private volatile boolean trackingEnabled = true;
+    private boolean retransformable;
     
     static {
-	resetConfiguration();
+	parseArguments(null);
     }
     
     /**
@@ -71,47 +84,158 @@ public class Agent implements ClassFileTransformer {
     public static void premain(String args, Instrumentation instrumentation) {
 	LOG.info("Performing class instrumentation...");
 	parseArguments(args);
-	instrumentation.addTransformer(new Agent());
+	install(instrumentation, false);
     }
     
-    static void parseArguments(String args) {
-	if (args != null) {
-	    StringTokenizer st = new StringTokenizer(args, "#", false);
-	    while (st.hasMoreTokens()) {
-		String token = st.nextToken();
-		int j = token.indexOf("=");
-		if (j > 0) {
-		    String key = token.substring(0, j);
-		    if ("include".equalsIgnoreCase(key)) {
-			includes = token.substring(j+1).split(",");
-			for (int i = 0; i < includes.length; i++) {
-			    String s = includes[i];
-			    if (!s.endsWith("/")) {
-				includes[i] = s + "/";
-			    }
-			}
-		    } else if ("exclude".equalsIgnoreCase(key)) {
-			excludes = token.substring(j+1).split(",");
-			for (int i = 0; i < excludes.length; i++) {
-			    String s = excludes[i];
-			    if (!s.endsWith("/")) {
-				excludes[i] = s + "/";
-			    }
-			}
-		    } else if ("classesExclude".equalsIgnoreCase(key)) {
-			classesExcludes = token.substring(j+1).split(",");
-		    }
+    /**
+     * The agentmain method called when dynamically loading the agent into
+     * a running JVM (e.g. through the attach API); the classes that have
+     * already been loaded are instrumented through retransformation.
+     * Only the call probes are supported in this case, as retransformation
+     * can't add fields or methods to the classes.
+     * 
+     * @param args
+     * @param instrumentation
+     */
+    public static void agentmain(String args, Instrumentation instrumentation) {
+	LOG.info("Attaching agent...");
+	parseArguments(args);
+	if (configuration.probeArrays || configuration.cacheDir != null) {
+	    LOG.warning("Probe arrays and instrumentation cache are not supported when attaching the agent, falling back to call probes");
+	    configuration.probeArrays = false;
+	    configuration.cacheDir = null;
+	}
+	install(instrumentation, true);
+    }
+    
+    private static synchronized void install(Instrumentation instrumentation, boolean attached) {
+	if (installed != null) {
+	    LOG.warning("Agent already installed, ignoring the new one");
+	    return;
+	}
+	final Agent agent = new Agent();
+	Runtime.getRuntime().addShutdownHook(new Thread() {
+	    @Override
+	    public void run() {
+		LOG.info(agent.stats.toString());
+		if (agent.cache != null) {
+		    LOG.info(agent.cache.getReport());
 		}
 	    }
-	} else {
-	    resetConfiguration();
+	});
+	registerMBeans(agent);
+	if (configuration.counting) {
+	    InvocationTracker.setCounting(true);
+	}
+	if (configuration.sharedContext) {
+	    InvocationTracker.setSharedContext(true);
+	}
+	if (configuration.coverageFile != null) {
+	    if (configuration.probeArrays) {
+		LOG.warning("The coverage buffer only records the invocations tracked through call probes");
+	    }
+	    try {
+		MappedCoverageBuffer.setInstance(new MappedCoverageBuffer(new File(configuration.coverageFile), configuration.coverageSlots, configuration.coverageMethods));
+	    } catch (IOException e) {
+		LOG.warning("Could not create the coverage buffer " + configuration.coverageFile + ": " + e.getMessage());
+	    }
+	}
+	agent.trackingEnabled = configuration.tracking;
+	agent.retransformable = agent.cache == null && !configuration.probeArrays && instrumentation.isRetransformClassesSupported();
+	if (!agent.trackingEnabled && !agent.retransformable) {
+	    LOG.warning("Tracking is off and can't be switched on at runtime when using probe arrays or the instrumentation cache");
+	}
+	// have the matcher load its own classes before the first transformation
+	isInstrumentationRequired(ClassMatcher.class.getName());
+	instrumentation.addTransformer(agent, agent.retransformable);
+	Agent.instrumentation = instrumentation;
+	installed = agent;
+	if (attached && agent.trackingEnabled) {
+	    retransformLoadedClasses();
 	}
     }
-
-    private static void resetConfiguration() {
-	includes = null;
-	excludes = null;
-	classesExcludes = new String[] { "$Proxy" };
+    
+    private static void registerMBeans(Agent agent) {
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    server.registerMBean(agent.stats, new ObjectName(AgentStats.OBJECT_NAME));
+	    server.registerMBean(TrackerStats.getInstance(), new ObjectName(TrackerStats.OBJECT_NAME));
+	} catch (Exception e) {
+	    LOG.warning("Could not register the agent MBeans: " + e.getMessage());
+	}
+    }
+    
+    /**
+     * Turns tracking on or off at runtime: the classes that have already
+     * been loaded are retransformed, so that they either get the probes or
+     * get back their original bytecode; classes loaded afterwards are
+     * instrumented only when tracking is on.
+     * 
+     * This requires the agent to use call probes without any cache, as
+     * retransformation can't add fields or methods to the classes.
+     * 
+     * @param enabled
+     * @throws IllegalStateException	If the agent is not installed or does
+     * 					not support retransformation
+     */
+    public static synchronized void setTrackingEnabled(boolean enabled) {
+	if (installed == null) {
+	    throw new IllegalStateException("The agent is not installed");
+	}
+	if (installed.trackingEnabled == enabled) {
+	    return;
+	}
+	if (!installed.retransformable) {
+	    throw new IllegalStateException("Tracking can't be switched at runtime when using probe arrays or the instrumentation cache");
+	}
+	installed.trackingEnabled = enabled;
+	retransformLoadedClasses();
+    }
+    
+    /**
+     * @return True if the agent is installed and tracking invocations
+     */
+    public static synchronized boolean isTrackingEnabled() {
+	return installed != null && installed.trackingEnabled;
+    }
+    
+    private static void retransformLoadedClasses() {
+	List<Class<?>> classes = new ArrayList<Class<?>>();
+	for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
+	    if (instrumentation.isModifiableClass(clazz) && isInstrumentationRequired(clazz.getName())) {
+		classes.add(clazz);
+	    }
+	}
+	try {
+	    instrumentation.retransformClasses(classes.toArray(new Class<?>[classes.size()]));
+	} catch (Throwable t) {
+	    // retry one by one, so that a single failure doesn't prevent the other classes from being retransformed
+	    for (Class<?> clazz : classes) {
+		try {
+		    instrumentation.retransformClasses(clazz);
+		} catch (Throwable t2) {
+		    LOG.warning("Could not retransform class '" + clazz.getName() + "': " + t2.getMessage());
+		}
+	    }
+	}
+	LOG.info("Retransformed " + classes.size() + " classes, tracking is " + (installed.trackingEnabled ? "on" : "off"));
+    }
+    
+    /**
+     * Creates an agent using the current configuration; when a cache
+     * directory is configured, classes are instrumented in a self registering
+     * way, as the instrumented bytecode is going to be used by other JVMs.
+     */
+    public Agent() {
+	AgentConfiguration c = configuration;
+	this.instrumenter = new ClassInstrumenter(c.probeArrays, c.cacheDir != null, c.classGranularity, c.skip, c.propagateContext);
+	this.cache = c.cacheDir != null ? new InstrumentationCache(new File(c.cacheDir), instrumenter.getConfiguration()) : null;
+	this.pools = new ClassPools(c.maxPoolUses);
+	this.stats = new AgentStats(pools);
+    }
+    
+    static void parseArguments(String args) {
+	configuration = new AgentConfiguration(args);
     }
     
     @SuppressWarnings("unused")
@@ -120,95 +244,66 @@ public class Agent implements ClassFileTransformer {
 	     		    Class<?> classBeingRedefined,
 	     		    ProtectionDomain protectionDomain,
 	     		    byte[] classfileBuffer) throws IllegalClassFormatException {
+	stats.classSeen();
+	if (!trackingEnabled) {
+	    stats.classSkipped();
+	    return null;
+	}
 	if (isInstrumentationRequired(className)) {
 	    try {
-		return modifyClass(className, classBeingRedefined, classfileBuffer);
+		long start = System.nanoTime();
+		byte[] modified = modifyClass(loader, className, classBeingRedefined, classfileBuffer);
+		if (modified != classfileBuffer) {
+		    stats.classInstrumented(System.nanoTime() - start, classfileBuffer.length, modified.length);
+		} else {
+		    stats.classSkipped();
+		}
+		return modified;
 	    } catch (Throwable t) {
+		stats.classFailed();
 		LOG.throwing(Agent.class.getName(), "transform", t);
 		t.printStackTrace();
 		return null;
 	    }
 	}
+	stats.classSkipped();
 	return classfileBuffer;
     }
     
+    /**
+     * @return The agent telemetry
+     */
+    AgentStats getStats() {
+	return stats;
+    }
+    
     static boolean isInstrumentationRequired(String className) {
-	if (Helper.isInJVMPackage(className)) {
-	    return false;
-	}
-	if (Helper.isInRestrictedPackage(className)) {
-	    return false;
-	}
-	if (classesExcludes != null) {
-	    for (String ce : classesExcludes) {
-		// TODO improve this
-		if (className.contains(ce)) {
-		    return false;
-		}
-	    }
-	}
-	String matchedInclude = null;
-	String matchedExclude = null;
-	if (includes != null) {
-	    for (String in : includes) {
-		if (className.startsWith(in)) {
-		    if (matchedInclude == null || in.length() > matchedInclude.length()) {
-			matchedInclude = in;
-		    }
-		}
-	    }
-	}
-	if (excludes != null) {
-	    for (String ex : excludes) {
-		if (className.startsWith(ex)) {
-		    if (matchedExclude == null || ex.length() > matchedExclude.length()) {
-			matchedExclude = ex;
-		    }
-		}
-	    }
-	}
-	if (matchedExclude == null && matchedInclude != null) {
-	    return true;
-	} else if (matchedExclude != null && matchedInclude == null) {
-	    return false;
-	} else if (matchedExclude != null && matchedInclude != null) {
-	    return matchedInclude.length() > matchedExclude.length();
-	}
-	return (includes == null);
+	return configuration.isInstrumentationRequired(className);
     }
     
-    private byte[] modifyClass(String className, Class<?> clazz, byte[] bytes) {
-	ClassPool pool = ClassPool.getDefault();
-	CtClass cl = null;
+    private byte[] modifyClass(ClassLoader loader, String className, Class<?> clazz, byte[] bytes) {
+	ClassPool pool = pools.get(loader);
+	String key = null;
 	try {
-	    cl = pool.makeClass(new ByteArrayInputStream(bytes));
-	    if (!cl.isInterface()) {
-		CtBehavior[] methods = cl.getDeclaredBehaviors();
-		for (CtBehavior m : methods) {
-		    if (!Modifier.isAbstract(m.getModifiers())) {
-//			  System.out.println("** Instrumenting: " + className + " -> " + m.getLongName());
-		        //InvocationTracker.getInstance().addInvokedMethod(className, m.getLongName());
-			StringBuilder code = new StringBuilder();
-			code.append(InvocationTracker.class.getName());
-			code.append(".getInstance().addInvokedMethod(\"");
-			code.append(Helper.getCanonicalNameFromJavaAssistName(className));
-			code.append("\", \"");
-			code.append(m.getLongName());
-			code.append("\");");
-			m.insertBefore(code.toString());
-		    }
+	    if (cache != null) {
+		key = cache.getKey(bytes, pool, instrumenter.getReferencedTypes(bytes));
+		byte[] cached = cache.get(key);
+		if (cached != null) {
+		    return cached;
 		}
 	    }
-	    bytes = cl.toBytecode();
+	    byte[] modified = instrumenter.instrument(pool, className, bytes);
+	    if (modified == null) {
+		modified = bytes;
+	    }
+	    if (cache != null) {
+		cache.put(key, modified);
+	    }
+	    return modified;
 	} catch (Exception e) {
 	    LOG.severe("Instrumentation failed of class '" + className + "': " + e.getMessage());
 	    throw new RuntimeException(e); //TODO implement proper exception handling
-	} finally {
-	    if (cl != null) {
-		cl.detach();
-	    }
 	}
-	return bytes;
     }
 
 }
@@ -0,0 +1,139 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import it.javalinux.testedby.metadata.builder.instrumentation.MappedCoverageBuffer;
+
+import java.util.StringTokenizer;
+import java.util.logging.Logger;
+
+/**
+ * The instrumentation options, as parsed from the agent arguments
+ * (a '#' separated list of key=value couples, e.g.
+ * include=org/foo#exclude=org/foo/bar#probes=array); each instance
+ * is independent, hence the agent and the offline instrumenter
+ * can be configured separately in the same JVM.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+class AgentConfiguration {
+
+    private static Logger LOG = Logger.getLogger(AgentConfiguration.class.getName());
+
+    String[] includes;
+    String[] excludes;
+    String[] classesExcludes = new String[] { "$Proxy" };
+    boolean probeArrays;
+    String cacheDir;
+    int maxPoolUses = ClassPools.DEFAULT_MAX_USES;
+    boolean tracking = true;
+    boolean classGranularity;
+    int skip;
+    boolean propagateContext;
+    boolean sharedContext;
+    boolean counting;
+    String coverageFile;
+    int coverageSlots = MappedCoverageBuffer.DEFAULT_SLOTS;
+    int coverageMethods = MappedCoverageBuffer.DEFAULT_METHODS;
+    final ClassMatcher matcher;
+
+    /**
+     * @param args	The agent arguments (null for the defaults)
+     */
+    AgentConfiguration(String args) {
+	if (args != null) {
+	    StringTokenizer st = new StringTokenizer(args, "#", false);
+	    while (st.hasMoreTokens()) {
+		String token = st.nextToken();
+		int j = token.indexOf("=");
+		if (j > 0) {
+		    parse(token.substring(0, j), token.substring(j+1));
+		}
+	    }
+	}
+	matcher = new ClassMatcher(includes, excludes, classesExcludes);
+    }
+
+    private void parse(String key, String value) {
+	if ("include".equalsIgnoreCase(key)) {
+	    includes = toPackages(value);
+	} else if ("exclude".equalsIgnoreCase(key)) {
+	    excludes = toPackages(value);
+	} else if ("classesExclude".equalsIgnoreCase(key)) {
+	    classesExcludes = value.split(",");
+	} else if ("probes".equalsIgnoreCase(key)) {
+	    probeArrays = "array".equalsIgnoreCase(value);
+	} else if ("cacheDir".equalsIgnoreCase(key)) {
+	    cacheDir = value;
+	} else if ("maxPoolUses".equalsIgnoreCase(key)) {
+	    maxPoolUses = Integer.parseInt(value);
+	} else if ("tracking".equalsIgnoreCase(key)) {
+	    tracking = !"off".equalsIgnoreCase(value);
+	} else if ("granularity".equalsIgnoreCase(key)) {
+	    classGranularity = "class".equalsIgnoreCase(value);
+	} else if ("skip".equalsIgnoreCase(key)) {
+	    for (String s : value.split(",")) {
+		if ("synthetic".equalsIgnoreCase(s)) {
+		    skip |= ClassInstrumenter.SKIP_SYNTHETIC;
+		} else if ("bridge".equalsIgnoreCase(s)) {
+		    skip |= ClassInstrumenter.SKIP_BRIDGE;
+		} else if ("accessor".equalsIgnoreCase(s)) {
+		    skip |= ClassInstrumenter.SKIP_ACCESSOR;
+		} else {
+		    LOG.warning("Ignoring unknown skip option: " + s);
+		}
+	    }
+	} else if ("propagateContext".equalsIgnoreCase(key)) {
+	    propagateContext = Boolean.parseBoolean(value);
+	} else if ("coverageFile".equalsIgnoreCase(key)) {
+	    coverageFile = value;
+	} else if ("coverageSlots".equalsIgnoreCase(key)) {
+	    coverageSlots = Integer.parseInt(value);
+	} else if ("coverageMethods".equalsIgnoreCase(key)) {
+	    coverageMethods = Integer.parseInt(value);
+	} else if ("counting".equalsIgnoreCase(key)) {
+	    counting = Boolean.parseBoolean(value);
+	} else if ("context".equalsIgnoreCase(key)) {
+	    sharedContext = "shared".equalsIgnoreCase(value);
+	}
+    }
+
+    private static String[] toPackages(String value) {
+	String[] packages = value.split(",");
+	for (int i = 0; i < packages.length; i++) {
+	    String s = packages[i];
+	    if (!s.endsWith("/")) {
+		packages[i] = s + "/";
+	    }
+	}
+	return packages;
+    }
+
+    /**
+     * @param className	The class name (using '/' as package separator)
+     * @return		True if the provided class is to be instrumented
+     */
+    boolean isInstrumentationRequired(String className) {
+	return matcher.matches(className);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The agent telemetry; the counters are updated by the agent while
+ * transforming classes.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class AgentStats implements AgentStatsMBean {
+
+    static final String OBJECT_NAME = "it.javalinux.testedby:type=Agent";
+
+    private final ClassPools pools;
+
+    private final AtomicLong seen = new AtomicLong();
+
+    private final AtomicLong instrumented = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong totalTime = new AtomicLong();
+
+    private final AtomicLong maxTime = new AtomicLong();
+
+    private final AtomicLong bytesIn = new AtomicLong();
+
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    /**
+     * @param pools	The class pools used by the agent
+     */
+    AgentStats(ClassPools pools) {
+	this.pools = pools;
+    }
+
+    void classSeen() {
+	seen.incrementAndGet();
+    }
+
+    void classSkipped() {
+	skipped.incrementAndGet();
+    }
+
+    void classFailed() {
+	failed.incrementAndGet();
+    }
+
+    /**
+     * @param nanos		The time spent instrumenting the class
+     * @param originalSize	The original bytecode size
+     * @param modifiedSize	The instrumented bytecode size
+     */
+    void classInstrumented(long nanos, int originalSize, int modifiedSize) {
+	instrumented.incrementAndGet();
+	totalTime.addAndGet(nanos);
+	long max = maxTime.get();
+	while (nanos > max && !maxTime.compareAndSet(max, nanos)) {
+	    max = maxTime.get();
+	}
+	bytesIn.addAndGet(originalSize);
+	bytesOut.addAndGet(modifiedSize);
+    }
+
+    public long getClassesSeen() {
+	return seen.get();
+    }
+
+    public long getClassesInstrumented() {
+	return instrumented.get();
+    }
+
+    public long getClassesSkipped() {
+	return skipped.get();
+    }
+
+    public long getClassesFailed() {
+	return failed.get();
+    }
+
+    public long getTotalTransformTimeMicros() {
+	return totalTime.get() / 1000;
+    }
+
+    public long getMaxTransformTimeMicros() {
+	return maxTime.get() / 1000;
+    }
+
+    public long getBytesIn() {
+	return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+	return bytesOut.get();
+    }
+
+    public int getClassPools() {
+	return pools.size();
+    }
+
+    public void reset() {
+	for (AtomicLong counter : new AtomicLong[] { seen, instrumented, skipped, failed, totalTime, maxTime, bytesIn, bytesOut }) {
+	    counter.set(0);
+	}
+    }
+
+    @Override
+    public String toString() {
+	return "Agent stats: " + seen + " classes seen, " + instrumented + " instrumented, " + skipped + " skipped, " + failed + " failed; "
+		+ getTotalTransformTimeMicros() + " us spent instrumenting (max " + getMaxTransformTimeMicros() + " us), " + bytesIn + " -> "
+		+ bytesOut + " bytes";
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+/**
+ * The management interface exposing the agent telemetry (registered
+ * as it.javalinux.testedby:type=Agent)
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public interface AgentStatsMBean {
+
+    /**
+     * @return The number of classes the agent has been asked to transform
+     */
+    long getClassesSeen();
+
+    /**
+     * @return The number of classes that have been instrumented (including
+     *         those whose instrumented bytecode came from the cache)
+     */
+    long getClassesInstrumented();
+
+    /**
+     * @return The number of classes left untouched, either because of the
+     *         include/exclude rules, because tracking is off or because
+     *         they had already been instrumented
+     */
+    long getClassesSkipped();
+
+    /**
+     * @return The number of classes whose instrumentation failed
+     */
+    long getClassesFailed();
+
+    /**
+     * @return The overall time spent instrumenting classes, in microseconds
+     */
+    long getTotalTransformTimeMicros();
+
+    /**
+     * @return The longest time spent instrumenting a single class, in
+     *         microseconds
+     */
+    long getMaxTransformTimeMicros();
+
+    /**
+     * @return The size of the bytecode of the instrumented classes before
+     *         instrumentation
+     */
+    long getBytesIn();
+
+    /**
+     * @return The size of the bytecode of the instrumented classes after
+     *         instrumentation
+     */
+    long getBytesOut();
+
+    /**
+     * @return The number of javassist class pools currently held by the
+     *         agent
+     */
+    int getClassPools();
+
+    /**
+     * Resets the counters
+     */
+    void reset();
+}
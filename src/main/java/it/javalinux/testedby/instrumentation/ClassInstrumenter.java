@@ -0,0 +1,546 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import it.javalinux.testedby.metadata.builder.instrumentation.InvocationTracker;
+import it.javalinux.testedby.metadata.builder.instrumentation.MethodRegistry;
+import it.javalinux.testedby.metadata.builder.instrumentation.ProbeArrays;
+import it.javalinux.testedby.metadata.impl.Helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javassist.ClassPool;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.CtNewMethod;
+import javassist.Modifier;
+import javassist.NotFoundException;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.InnerClassesAttribute;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+import javassist.bytecode.SyntheticAttribute;
+
+/**
+ * Modifies the bytecode of a class adding the probes that
+ * track the invocations of its methods.
+ *
+ * Classes can be instrumented either for the current JVM only
+ * (the ids of the methods are registered at instrumentation time
+ * and hardcoded in the probes) or in a self registering way (the
+ * class registers its own methods when first running a probe),
+ * which is what's needed when the instrumented bytecode is going
+ * to be loaded by another JVM. Either way the direct supertypes
+ * of the class are registered too (see MethodRegistry); a self
+ * registering class also registers the types of its ancestors,
+ * as interfaces are not initialized along with their implementors.
+ *
+ * Nested classes are registered with their canonical names (e.g.
+ * Outer.Inner rather than Outer$Inner), as read from the
+ * InnerClasses attribute, so that they match the names of the
+ * loaded classes used for querying the metadata.
+ *
+ * With class granularity, the constructors and static methods of
+ * a class share a single probe, registered with a null method name,
+ * which is enough for knowing the classes a test is using.
+ *
+ * Trivial methods (synthetic methods, bridges, plain field accessors)
+ * can optionally be left without probes, as they're usually the most
+ * frequently invoked and the least useful for selecting tests.
+ *
+ * Finally, the tasks submitted to executors can be wrapped so that
+ * they're tracked for the submitting test (see ContextPropagator).
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+class ClassInstrumenter {
+
+    static final String PROBES_FIELD = "__testedby$probes";
+    static final String PROBES_INIT_METHOD = "__testedby$initProbes";
+    static final String IDS_FIELD = "__testedby$ids";
+    static final String IDS_INIT_METHOD = "__testedby$initIds";
+
+    static final int SKIP_SYNTHETIC = 1;
+    static final int SKIP_BRIDGE = 2;
+    static final int SKIP_ACCESSOR = 4;
+
+    private final boolean probeArrays;
+    private final boolean selfRegistering;
+    private final boolean classGranularity;
+    private final int skip;
+    private final boolean propagateContext;
+
+    /**
+     * @param probeArrays	True to use per-class probe arrays (see ProbeArrays)
+     * @param selfRegistering	True to have the instrumented class register its
+     * 				own methods at runtime
+     * @param classGranularity	True to track classes instead of methods
+     * @param skip		The methods not to be tracked, as a combination
+     * 				of the SKIP_* flags
+     * @param propagateContext	True to wrap the tasks submitted to executors
+     */
+    ClassInstrumenter(boolean probeArrays, boolean selfRegistering, boolean classGranularity, int skip, boolean propagateContext) {
+	this.probeArrays = probeArrays;
+	this.selfRegistering = selfRegistering;
+	this.classGranularity = classGranularity;
+	this.skip = skip;
+	this.propagateContext = propagateContext;
+    }
+
+    /**
+     * Returns a description of the options affecting the instrumented
+     * bytecode; to be updated whenever the generated code changes.
+     * 
+     * @return The instrumenter configuration
+     */
+    String getConfiguration() {
+	return "version=4#probes=" + (probeArrays ? "array" : "call") + "#selfRegistering=" + selfRegistering + "#granularity="
+		+ (classGranularity ? "class" : "method") + "#skip=" + skip + "#propagateContext=" + propagateContext;
+    }
+
+    /**
+     * Returns the types whose hierarchy the instrumented bytecode of the
+     * provided class depends on, besides the class itself: its supertypes,
+     * whose ancestors are registered along with the class when it's self
+     * registering, and the owners of the calls that might submit tasks to
+     * an executor (see ContextPropagator). Types in the JVM packages are
+     * left out, as they don't change for a given JVM.
+     *
+     * @param bytes		The class bytecode
+     * @return			The names of the types
+     * @throws IOException
+     */
+    Set<String> getReferencedTypes(byte[] bytes) throws IOException {
+	ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+	Set<String> types = new LinkedHashSet<String>();
+	addType(classFile.getSuperclass(), types);
+	for (String i : classFile.getInterfaces()) {
+	    addType(i, types);
+	}
+	if (propagateContext && !classFile.isInterface()) {
+	    ConstPool constPool = classFile.getConstPool();
+	    for (int i = 1; i < constPool.getSize(); i++) {
+		int tag = constPool.getTag(i);
+		if (tag == ConstPool.CONST_Methodref && ContextPropagator.isSubmitMethod(constPool.getMethodrefName(i))) {
+		    addType(constPool.getMethodrefClassName(i), types);
+		} else if (tag == ConstPool.CONST_InterfaceMethodref && ContextPropagator.isSubmitMethod(constPool.getInterfaceMethodrefName(i))) {
+		    addType(constPool.getInterfaceMethodrefClassName(i), types);
+		}
+	    }
+	}
+	return types;
+    }
+
+    private static void addType(String type, Set<String> types) {
+	if (type != null && !Helper.isInJVMPackage(type)) {
+	    types.add(type);
+	}
+    }
+
+    /**
+     * Instruments the provided class
+     *
+     * @param pool		The pool to be used for parsing the class
+     * @param className		The class name (using '/' as package separator)
+     * @param bytes		The class bytecode
+     * @return			The modified bytecode, or null if the class has
+     * 				already been instrumented
+     * @throws Exception
+     */
+    byte[] instrument(ClassPool pool, String className, byte[] bytes) throws Exception {
+	CtClass cl = null;
+	try {
+	    cl = pool.makeClass(new ByteArrayInputStream(bytes));
+	    if (isInstrumented(cl)) {
+		return null;
+	    }
+	    String canonicalName = getCanonicalName(cl.getClassFile2(), Helper.getCanonicalNameFromJavaAssistName(className));
+	    if (!selfRegistering) {
+		MethodRegistry.getInstance().registerType(canonicalName, getCanonicalSupertypes(cl));
+	    }
+	    if (!cl.isInterface()) {
+		if (propagateContext) {
+		    ContextPropagator propagator = new ContextPropagator(pool);
+		    for (CtBehavior m : cl.getDeclaredBehaviors()) {
+			if (!Modifier.isAbstract(m.getModifiers())) {
+			    m.instrument(propagator);
+			}
+		    }
+		}
+		List<CtBehavior> methods = new ArrayList<CtBehavior>();
+		for (CtBehavior m : cl.getDeclaredBehaviors()) {
+		    if (!Modifier.isAbstract(m.getModifiers()) && (!classGranularity || m instanceof CtConstructor || Modifier.isStatic(m.getModifiers()))
+			    && !isSkipped(m)) {
+			methods.add(m);
+		    }
+		}
+		String[] longNames;
+		if (classGranularity) {
+		    longNames = methods.isEmpty() ? new String[0] : new String[] { null };
+		} else {
+		    longNames = new String[methods.size()];
+		    for (int k = 0; k < longNames.length; k++) {
+			longNames[k] = methods.get(k).getLongName();
+		    }
+		}
+		if (longNames.length > 0) {
+		    String[] ids = selfRegistering ? addIdsField(cl, canonicalName, longNames) : register(cl, canonicalName, longNames);
+		    for (int k = 0; k < methods.size(); k++) {
+			int probe = classGranularity ? 0 : k;
+			methods.get(k).insertBefore(getProbe(probe, ids[probe]));
+		    }
+		}
+		if (selfRegistering) {
+		    // after the probes, as the class initializer may be created here
+		    addTypesRegistration(pool, cl);
+		}
+	    }
+	    return cl.toBytecode();
+	} finally {
+	    if (cl != null) {
+		cl.detach();
+	    }
+	}
+    }
+
+    /**
+     * @param cl
+     * @return true if the provided class already contains probes
+     */
+    static boolean isInstrumented(CtClass cl) {
+	for (String field : new String[] { PROBES_FIELD, IDS_FIELD }) {
+	    try {
+		cl.getDeclaredField(field);
+		return true;
+	    } catch (NotFoundException e) {
+		//ignore
+	    }
+	}
+	return false;
+    }
+
+    private boolean isSkipped(CtBehavior m) {
+	MethodInfo info = m.getMethodInfo();
+	int flags = info.getAccessFlags();
+	if ((skip & SKIP_SYNTHETIC) != 0 && ((flags & AccessFlag.SYNTHETIC) != 0 || info.getAttribute(SyntheticAttribute.tag) != null)) {
+	    return true;
+	}
+	if ((skip & SKIP_BRIDGE) != 0 && (flags & AccessFlag.BRIDGE) != 0) {
+	    return true;
+	}
+	return (skip & SKIP_ACCESSOR) != 0 && m instanceof CtMethod && isAccessor(info);
+    }
+
+    /**
+     * @param info
+     * @return true if the method only reads and returns or writes a field,
+     * 	       that is its bytecode is either aload_0, getfield, xreturn or
+     * 	       aload_0, xload_1, putfield, return (or the same without aload_0
+     * 	       and using getstatic / putstatic)
+     */
+    static boolean isAccessor(MethodInfo info) {
+	CodeAttribute code = info.getCodeAttribute();
+	if (code == null || code.getCodeLength() > 8 || code.getExceptionTable().size() > 0) {
+	    return false;
+	}
+	List<Integer> ops = new ArrayList<Integer>();
+	try {
+	    CodeIterator it = code.iterator();
+	    while (it.hasNext()) {
+		ops.add(it.byteAt(it.next()));
+	    }
+	} catch (BadBytecode e) {
+	    return false;
+	}
+	switch (ops.size()) {
+	    case 2 :
+		return ops.get(0) == Opcode.GETSTATIC && isValueReturn(ops.get(1));
+	    case 3 :
+		return (ops.get(0) == Opcode.ALOAD_0 && ops.get(1) == Opcode.GETFIELD && isValueReturn(ops.get(2)))
+			|| (isLoad(ops.get(0), 0) && ops.get(1) == Opcode.PUTSTATIC && ops.get(2) == Opcode.RETURN);
+	    case 4 :
+		return ops.get(0) == Opcode.ALOAD_0 && isLoad(ops.get(1), 1) && ops.get(2) == Opcode.PUTFIELD && ops.get(3) == Opcode.RETURN;
+	    default :
+		return false;
+	}
+    }
+
+    private static boolean isValueReturn(int op) {
+	return op >= Opcode.IRETURN && op <= Opcode.ARETURN;
+    }
+
+    private static boolean isLoad(int op, int slot) {
+	return op == Opcode.ILOAD_0 + slot || op == Opcode.LLOAD_0 + slot || op == Opcode.FLOAD_0 + slot || op == Opcode.DLOAD_0 + slot
+		|| op == Opcode.ALOAD_0 + slot;
+    }
+
+    /**
+     * @param cl
+     * @return The names of the direct superclass and interfaces of the
+     *         provided class, as read from its bytecode; JVM types are
+     *         skipped as they're never linked to tests
+     */
+    private static String[] getSupertypes(CtClass cl) {
+	ClassFile classFile = cl.getClassFile2();
+	String[] interfaces = classFile.getInterfaces();
+	String superclass = cl.isInterface() ? null : classFile.getSuperclass();
+	List<String> result = new ArrayList<String>(interfaces.length + 1);
+	if (superclass != null && !Helper.isInJVMPackage(superclass)) {
+	    result.add(superclass);
+	}
+	for (String i : interfaces) {
+	    if (!Helper.isInJVMPackage(i)) {
+		result.add(i);
+	    }
+	}
+	return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * @param cl
+     * @return The canonical names of the direct supertypes of the provided
+     *         class (see getSupertypes)
+     */
+    private static String[] getCanonicalSupertypes(CtClass cl) {
+	String[] supertypes = getSupertypes(cl);
+	for (int i = 0; i < supertypes.length; i++) {
+	    supertypes[i] = getCanonicalName(cl.getClassFile2(), supertypes[i]);
+	}
+	return supertypes;
+    }
+
+    /**
+     * @param classFile		The class file referencing the provided class
+     * @param name		The binary name of a class (e.g. Outer$Inner)
+     * @return The canonical name of the provided class (e.g. Outer.Inner),
+     *         or its binary name if it's a local or anonymous class or it's
+     *         not listed in the InnerClasses attribute of the class file
+     */
+    static String getCanonicalName(ClassFile classFile, String name) {
+	InnerClassesAttribute innerClasses = (InnerClassesAttribute) classFile.getAttribute(InnerClassesAttribute.tag);
+	if (innerClasses != null) {
+	    for (int i = 0; i < innerClasses.tableLength(); i++) {
+		if (name.equals(innerClasses.innerClass(i))) {
+		    String outer = innerClasses.outerClassIndex(i) != 0 ? innerClasses.outerClass(i) : null;
+		    String simpleName = innerClasses.innerNameIndex(i) != 0 ? innerClasses.innerName(i) : null;
+		    if (outer != null && simpleName != null) {
+			return getCanonicalName(classFile, outer) + "." + simpleName;
+		    }
+		    break;
+		}
+	    }
+	}
+	return name;
+    }
+
+    /**
+     * Adds the code registering the types of the provided class and of its
+     * ancestors that can be resolved through the provided pool when the
+     * class is initialized.
+     */
+    private static void addTypesRegistration(ClassPool pool, CtClass cl) throws Exception {
+	Map<String, String[]> types = new LinkedHashMap<String, String[]>();
+	collectTypes(pool, cl, types);
+	//MethodRegistry.getInstance().registerTypes(new String[] { "className", "supertype0", ..., null, ... });
+	StringBuilder code = new StringBuilder();
+	code.append(MethodRegistry.class.getName());
+	code.append(".getInstance().registerTypes(new String[] {");
+	boolean first = true;
+	for (Map.Entry<String, String[]> entry : types.entrySet()) {
+	    code.append(first ? " \"" : ", \"");
+	    code.append(entry.getKey());
+	    code.append("\"");
+	    for (String supertype : entry.getValue()) {
+		code.append(", \"");
+		code.append(supertype);
+		code.append("\"");
+	    }
+	    code.append(", null");
+	    first = false;
+	}
+	code.append(" });");
+	cl.makeClassInitializer().insertBefore(code.toString());
+    }
+
+    private static void collectTypes(ClassPool pool, CtClass cl, Map<String, String[]> types) {
+	String name = getCanonicalName(cl.getClassFile2(), cl.getName());
+	if (types.containsKey(name)) {
+	    return;
+	}
+	types.put(name, getCanonicalSupertypes(cl));
+	for (String supertype : getSupertypes(cl)) {
+	    CtClass type;
+	    try {
+		type = pool.get(supertype);
+	    } catch (NotFoundException e) {
+		continue;
+	    } catch (RuntimeException e) {
+		// javassist can't parse some class files (e.g. newer versions ones)
+		continue;
+	    }
+	    collectTypes(pool, type, types);
+	}
+    }
+
+    /**
+     * Registers the provided methods in the MethodRegistry of this JVM.
+     * 
+     * @return The ids of the methods
+     */
+    private String[] register(CtClass cl, String className, String[] longNames) throws Exception {
+	int[] ids = MethodRegistry.getInstance().register(className, longNames);
+	if (probeArrays) {
+	    //ProbeArrays.getProbes(classProbeId)
+	    StringBuilder code = new StringBuilder();
+	    code.append(ProbeArrays.class.getName());
+	    code.append(".getProbes(");
+	    code.append(ProbeArrays.register(ids));
+	    code.append(")");
+	    addLazyStaticField(cl, "boolean[]", PROBES_FIELD, PROBES_INIT_METHOD, code.toString());
+	}
+	String[] result = new String[ids.length];
+	for (int k = 0; k < ids.length; k++) {
+	    result[k] = String.valueOf(ids[k]);
+	}
+	return result;
+    }
+
+    /**
+     * Adds the code registering the provided methods in the MethodRegistry
+     * when the class is first used.
+     * 
+     * @return The code evaluating to the ids of the methods
+     */
+    private String[] addIdsField(CtClass cl, String className, String[] longNames) throws Exception {
+	//MethodRegistry.getInstance().register("className", new String[] { "longName0", ... })
+	StringBuilder registration = new StringBuilder();
+	registration.append(MethodRegistry.class.getName());
+	registration.append(".getInstance().register(\"");
+	registration.append(className);
+	registration.append("\", new String[] {");
+	for (int k = 0; k < longNames.length; k++) {
+	    registration.append(k > 0 ? ", " : " ");
+	    if (longNames[k] != null) {
+		registration.append("\"");
+		registration.append(longNames[k]);
+		registration.append("\"");
+	    } else {
+		registration.append("null");
+	    }
+	}
+	registration.append(" })");
+	if (probeArrays) {
+	    //ProbeArrays.getProbes(ProbeArrays.register(<registration>))
+	    StringBuilder code = new StringBuilder();
+	    code.append(ProbeArrays.class.getName());
+	    code.append(".getProbes(");
+	    code.append(ProbeArrays.class.getName());
+	    code.append(".register(");
+	    code.append(registration);
+	    code.append("))");
+	    addLazyStaticField(cl, "boolean[]", PROBES_FIELD, PROBES_INIT_METHOD, code.toString());
+	} else {
+	    addLazyStaticField(cl, "int[]", IDS_FIELD, IDS_INIT_METHOD, registration.toString());
+	}
+	String[] result = new String[longNames.length];
+	for (int k = 0; k < longNames.length; k++) {
+	    result[k] = IDS_INIT_METHOD + "()[" + k + "]";
+	}
+	return result;
+    }
+
+    /**
+     * Returns the probe for the k-th instrumented method of a class
+     *
+     * @param k			The index of the method
+     * @param id		The code evaluating to the id of the method
+     * @return			The probe code
+     */
+    private String getProbe(int k, String id) {
+	StringBuilder code = new StringBuilder();
+	if (probeArrays) {
+	    //__testedby$initProbes()[k] = true;
+	    code.append(PROBES_INIT_METHOD);
+	    code.append("()[");
+	    code.append(k);
+	    code.append("] = true;");
+	} else {
+	    //InvocationTracker.getInstance().addInvokedMethod(id);
+	    code.append(InvocationTracker.class.getName());
+	    code.append(".getInstance().addInvokedMethod(");
+	    code.append(id);
+	    code.append(");");
+	}
+	return code.toString();
+    }
+
+    /**
+     * Adds a private static field to the provided class, together with a
+     * static method lazily initializing it: the class static initializer is
+     * not enough, as instrumented methods can be invoked before it completes
+     * (e.g. when a superclass static initializer creates an instance of the
+     * class).
+     *
+     * @param cl		The class being instrumented
+     * @param type		The field type
+     * @param field		The field name
+     * @param method		The name of the method initializing and returning the field
+     * @param initializer	The code evaluating to the field value
+     * @throws Exception
+     */
+    private static void addLazyStaticField(CtClass cl, String type, String field, String method, String initializer) throws Exception {
+	cl.addField(CtField.make("private static " + type + " " + field + ";", cl));
+	StringBuilder code = new StringBuilder();
+	code.append("private static ");
+	code.append(type);
+	code.append(" ");
+	code.append(method);
+	code.append("() { if (");
+	code.append(field);
+	code.append(" == null) { ");
+	code.append(field);
+	code.append(" = ");
+	code.append(initializer);
+	code.append("; } return ");
+	code.append(field);
+	code.append("; }");
+	CtMethod init = CtNewMethod.make(code.toString(), cl);
+	cl.addMethod(init);
+    }
+}
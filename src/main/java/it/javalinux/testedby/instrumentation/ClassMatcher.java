@@ -0,0 +1,251 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import it.javalinux.testedby.metadata.impl.Helper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides whether a class needs to be instrumented, according to the agent
+ * include/exclude/classesExclude rules as well as to the JVM and restricted
+ * packages (see Helper) and to the packages the agent itself depends on.
+ *
+ * The rules are compiled once into two tries (one for the package rules and
+ * one for the class name fragments); patterns can contain the '*' (any
+ * sequence of characters but '/') and '**' (any sequence of characters)
+ * wildcards. When both include and exclude rules match, the longest one wins
+ * (the exclusion on a tie); the package decisions are cached, so that the
+ * package trie is walked once per package only.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+class ClassMatcher {
+
+    private static final int INCLUDE = 1;
+    private static final int EXCLUDE = 2;
+    private static final int VETO = 3;
+
+    // the JDK packages used by the agent MBeans (see AgentStats)
+    private static final String[] AGENT_PACKAGES = new String[] { "com.sun.jmx.", "com.sun.management." };
+
+    private final Node packageRules = new Node();
+
+    private final Node classRules = new Node();
+
+    private final boolean includeByDefault;
+
+    private final ConcurrentMap<String, Boolean> packageDecisions = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * @param includes		The included package patterns (null to include everything)
+     * @param excludes		The excluded package patterns
+     * @param classesExcludes	The excluded class name fragments
+     */
+    ClassMatcher(String[] includes, String[] excludes, String[] classesExcludes) {
+	for (String p : Helper.getJVMPackages()) {
+	    add(packageRules, p.replace('.', '/'), VETO);
+	}
+	for (String p : Helper.getRestrictedPackages()) {
+	    add(packageRules, p.replace('.', '/'), VETO);
+	}
+	for (String p : AGENT_PACKAGES) {
+	    add(packageRules, p.replace('.', '/'), VETO);
+	}
+	if (includes != null) {
+	    for (String p : includes) {
+		add(packageRules, p, INCLUDE);
+	    }
+	}
+	if (excludes != null) {
+	    for (String p : excludes) {
+		add(packageRules, p, EXCLUDE);
+	    }
+	}
+	if (classesExcludes != null) {
+	    for (String p : classesExcludes) {
+		add(classRules, p, VETO);
+	    }
+	}
+	this.includeByDefault = (includes == null);
+    }
+
+    /**
+     * @param className		The class name (either using '/' or '.' as separator)
+     * @return			True if the class needs to be instrumented
+     */
+    boolean matches(String className) {
+	if (className == null) {
+	    return false;
+	}
+	String name = className.replace('.', '/');
+	String packageName = name.substring(0, name.lastIndexOf('/') + 1);
+	Boolean decision = packageDecisions.get(packageName);
+	if (decision == null) {
+	    decision = isPackageIncluded(packageName);
+	    packageDecisions.put(packageName, decision);
+	}
+	if (!decision) {
+	    return false;
+	}
+	Match match = new Match();
+	for (int i = 0; i < name.length() && !match.vetoed; i++) {
+	    walk(classRules, name, i, match);
+	}
+	return !match.vetoed;
+    }
+
+    private boolean isPackageIncluded(String packageName) {
+	Match match = new Match();
+	walk(packageRules, packageName, 0, match);
+	if (match.vetoed) {
+	    return false;
+	}
+	if (match.exclude < 0 && match.include >= 0) {
+	    return true;
+	} else if (match.exclude >= 0 && match.include < 0) {
+	    return false;
+	} else if (match.exclude >= 0 && match.include >= 0) {
+	    return match.include > match.exclude;
+	}
+	return includeByDefault;
+    }
+
+    /**
+     * Walks the trie from the given node, recording the rules matching a
+     * prefix of name.substring(pos)
+     */
+    private static void walk(Node node, String name, int pos, Match match) {
+	if (match.vetoed) {
+	    return;
+	}
+	if (node.type == VETO) {
+	    match.vetoed = true;
+	    return;
+	} else if (node.type == INCLUDE) {
+	    match.include = Math.max(match.include, node.length);
+	} else if (node.type == EXCLUDE) {
+	    match.exclude = Math.max(match.exclude, node.length);
+	}
+	if (node.star != null) {
+	    for (int i = pos; i <= name.length(); i++) {
+		walk(node.star, name, i, match);
+		if (i < name.length() && name.charAt(i) == '/') {
+		    break;
+		}
+	    }
+	}
+	if (node.doubleStar != null) {
+	    for (int i = pos; i <= name.length(); i++) {
+		walk(node.doubleStar, name, i, match);
+	    }
+	}
+	if (pos < name.length()) {
+	    Node next = node.get(name.charAt(pos));
+	    if (next != null) {
+		walk(next, name, pos + 1, match);
+	    }
+	}
+    }
+
+    private static void add(Node root, String pattern, int type) {
+	Node node = root;
+	int i = 0;
+	while (i < pattern.length()) {
+	    char c = pattern.charAt(i);
+	    if (c == '*') {
+		if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+		    if (node.doubleStar == null) {
+			node.doubleStar = new Node();
+		    }
+		    node = node.doubleStar;
+		    i += 2;
+		} else {
+		    if (node.star == null) {
+			node.star = new Node();
+		    }
+		    node = node.star;
+		    i++;
+		}
+	    } else {
+		node = node.getOrAdd(c);
+		i++;
+	    }
+	}
+	// a veto wins over an identical exclusion, which wins over an identical inclusion
+	if (type > node.type) {
+	    node.type = type;
+	}
+	node.length = pattern.length();
+    }
+
+    private static class Match {
+
+	private boolean vetoed;
+
+	private int include = -1;
+
+	private int exclude = -1;
+    }
+
+    private static class Node {
+
+	private char[] chars = new char[0];
+
+	private Node[] children = new Node[0];
+
+	private Node star;
+
+	private Node doubleStar;
+
+	private int type;
+
+	private int length;
+
+	Node get(char c) {
+	    for (int i = 0; i < chars.length; i++) {
+		if (chars[i] == c) {
+		    return children[i];
+		}
+	    }
+	    return null;
+	}
+
+	Node getOrAdd(char c) {
+	    Node node = get(c);
+	    if (node == null) {
+		node = new Node();
+		char[] newChars = new char[chars.length + 1];
+		Node[] newChildren = new Node[children.length + 1];
+		System.arraycopy(chars, 0, newChars, 0, chars.length);
+		System.arraycopy(children, 0, newChildren, 0, children.length);
+		newChars[chars.length] = c;
+		newChildren[children.length] = node;
+		chars = newChars;
+		children = newChildren;
+	    }
+	    return node;
+	}
+    }
+}
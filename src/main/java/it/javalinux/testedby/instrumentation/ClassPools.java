@@ -0,0 +1,107 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.LoaderClassPath;
+
+/**
+ * Manages the javassist class pools used by the agent: each class loader gets
+ * its own pool (looking up classes through that loader), which is held
+ * through a weak reference to the loader and is replaced by a fresh one after
+ * having been used for a given number of classes, so that the CtClass
+ * instances cached by javassist for referenced types don't pile up.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+class ClassPools {
+
+    static final int DEFAULT_MAX_USES = 1000;
+
+    private final int maxUses;
+
+    private final Map<ClassLoader, PoolHolder> pools = new WeakHashMap<ClassLoader, PoolHolder>();
+
+    // the pool for classes loaded by the bootstrap class loader
+    private PoolHolder bootstrapPool;
+
+    /**
+     * @param maxUses	The number of classes a pool can be used for before being replaced
+     */
+    ClassPools(int maxUses) {
+	this.maxUses = maxUses;
+    }
+
+    /**
+     * Returns the pool to be used for a class defined by the provided loader
+     *
+     * @param loader	The defining class loader (null for the bootstrap loader)
+     * @return		The class pool
+     */
+    synchronized ClassPool get(ClassLoader loader) {
+	PoolHolder holder = loader != null ? pools.get(loader) : bootstrapPool;
+	if (holder == null || holder.uses >= maxUses) {
+	    holder = new PoolHolder(createPool(loader));
+	    if (loader != null) {
+		pools.put(loader, holder);
+	    } else {
+		bootstrapPool = holder;
+	    }
+	}
+	holder.uses++;
+	return holder.pool;
+    }
+
+    /**
+     * @return The number of class pools currently in use
+     */
+    synchronized int size() {
+	return pools.size() + (bootstrapPool != null ? 1 : 0);
+    }
+
+    private static ClassPool createPool(ClassLoader loader) {
+	ClassPool pool = new ClassPool(false);
+	if (loader != null) {
+	    pool.appendClassPath(new LoaderClassPath(loader));
+	}
+	// the tracking classes the probes refer to
+	pool.appendClassPath(new ClassClassPath(ClassPools.class));
+	pool.appendSystemPath();
+	return pool;
+    }
+
+    private static class PoolHolder {
+
+	private final ClassPool pool;
+
+	private int uses;
+
+	public PoolHolder(ClassPool pool) {
+	    this.pool = pool;
+	}
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import it.javalinux.testedby.metadata.builder.instrumentation.InvocationTracker;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.NotFoundException;
+import javassist.bytecode.Descriptor;
+import javassist.expr.ExprEditor;
+import javassist.expr.MethodCall;
+
+/**
+ * Rewrites the calls submitting tasks to java.util.concurrent executors
+ * (execute, submit, invokeAll, invokeAny, schedule*, CompletableFuture
+ * runAsync and supplyAsync), so that the Runnable / Callable / Supplier
+ * tasks are wrapped through InvocationTracker.wrap() and the invocations
+ * they perform are tracked for the test that submitted them, whatever the
+ * thread running them.
+ *
+ * Please note the executors get the wrapped tasks, hence the calls relying
+ * on the identity of a submitted task (e.g. ThreadPoolExecutor.remove(task)
+ * or getQueue().contains(task)) don't find it anymore in the instrumented
+ * classes.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+class ContextPropagator extends ExprEditor {
+
+    private static final Set<String> METHODS = new HashSet<String>(Arrays.asList("execute", "submit", "invokeAll", "invokeAny", "schedule",
+	    "scheduleAtFixedRate", "scheduleWithFixedDelay", "runAsync", "supplyAsync"));
+
+    private static final String[] EXECUTORS = { "java.util.concurrent.Executor", "java.util.concurrent.CompletionService",
+	    "java.util.concurrent.CompletableFuture" };
+
+    private static final String TRACKER = InvocationTracker.class.getName();
+
+    private final ClassPool pool;
+
+    /**
+     * @param pool	The pool the class being instrumented comes from
+     */
+    ContextPropagator(ClassPool pool) {
+	this.pool = pool;
+    }
+
+    /**
+     * @param name	A method name
+     * @return		True if a method with the provided name might submit
+     * 			tasks to an executor
+     */
+    static boolean isSubmitMethod(String name) {
+	return METHODS.contains(name);
+    }
+
+    @Override
+    public void edit(MethodCall call) throws CannotCompileException {
+	String name = call.getMethodName();
+	if (!isSubmitMethod(name)) {
+	    return;
+	}
+	try {
+	    if (!isExecutor(call.getClassName())) {
+		return;
+	    }
+	    CtClass[] parameters = Descriptor.getParameterTypes(call.getSignature(), pool);
+	    StringBuilder code = new StringBuilder();
+	    for (int i = 0; i < parameters.length; i++) {
+		String type = parameters[i].getName();
+		String method = null;
+		if ("java.lang.Runnable".equals(type) || "java.util.concurrent.Callable".equals(type) || "java.util.function.Supplier".equals(type)) {
+		    method = "wrap";
+		} else if ("java.util.Collection".equals(type) && name.startsWith("invoke")) {
+		    method = "wrapAll";
+		}
+		if (method != null) {
+		    //$i = InvocationTracker.wrap($i);
+		    code.append("$");
+		    code.append(i + 1);
+		    code.append(" = ");
+		    code.append(TRACKER);
+		    code.append(".");
+		    code.append(method);
+		    code.append("($");
+		    code.append(i + 1);
+		    code.append("); ");
+		}
+	    }
+	    if (code.length() > 0) {
+		call.replace("{ " + code + "$_ = $proceed($$); }");
+	    }
+	} catch (NotFoundException e) {
+	    // a type that can't be resolved can't be an executor we know
+	}
+    }
+
+    private boolean isExecutor(String className) {
+	for (String executor : EXECUTORS) {
+	    if (executor.equals(className)) {
+		return true;
+	    }
+	}
+	CtClass cl;
+	try {
+	    cl = pool.get(className);
+	} catch (NotFoundException e) {
+	    return false;
+	}
+	for (String executor : EXECUTORS) {
+	    try {
+		if (cl.subtypeOf(pool.get(executor))) {
+		    return true;
+		}
+	    } catch (NotFoundException e) {
+		// e.g. CompletableFuture on older JVMs
+	    } catch (RuntimeException e) {
+		// a class file javassist can't read (e.g. a recent JDK one)
+	    }
+	}
+	return false;
+    }
+}
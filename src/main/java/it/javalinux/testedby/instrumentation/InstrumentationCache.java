@@ -0,0 +1,249 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import it.javalinux.testedby.metadata.impl.Helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javassist.ClassPool;
+import javassist.bytecode.ClassFile;
+
+/**
+ * A persistent content-addressed cache of instrumented bytecode, allowing the
+ * agent not to instrument again classes whose bytecode did not change since a
+ * previous run.
+ *
+ * Entries are keyed by a hash of the original class bytes and of the
+ * instrumentation configuration, hence only self registering instrumentation
+ * (see ClassInstrumenter) can be cached, the bytecode not containing any
+ * JVM specific method id. As the instrumented bytecode also depends on the
+ * hierarchy of some other types (see ClassInstrumenter.getReferencedTypes),
+ * the bytes of those types and of their ancestors are hashed too; the JVM
+ * types are not, the JVM version being part of the key instead.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+class InstrumentationCache {
+
+    private static Logger LOG = Logger.getLogger(InstrumentationCache.class.getName());
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File dir;
+
+    private final byte[] configuration;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param dir		The cache directory
+     * @param configuration	The instrumentation configuration the cached bytecode depends on
+     */
+    InstrumentationCache(File dir, String configuration) {
+	this.dir = dir;
+	this.configuration = (configuration + "#java=" + System.getProperty("java.version")).getBytes();
+	dir.mkdirs();
+    }
+
+    /**
+     * @param classBytes	The original class bytes
+     * @param pool		The pool resolving the types the class refers to
+     * @param types		The types the instrumented bytecode depends on
+     * @return			The cache key for the provided class bytes
+     */
+    String getKey(byte[] classBytes, ClassPool pool, Collection<String> types) {
+	try {
+	    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+	    digest.update(configuration);
+	    digest.update(classBytes);
+	    Set<String> visited = new HashSet<String>();
+	    LinkedList<String> pending = new LinkedList<String>(types);
+	    while (!pending.isEmpty()) {
+		String type = pending.removeFirst();
+		if (Helper.isInJVMPackage(type) || !visited.add(type)) {
+		    continue;
+		}
+		digest.update(type.getBytes());
+		URL url = pool.find(type);
+		if (url == null) {
+		    // the type can't be resolved, which is part of the key too
+		    digest.update((byte) 0);
+		    continue;
+		}
+		byte[] bytes = read(url.openStream(), 4096);
+		digest.update((byte) 1);
+		digest.update(bytes);
+		ClassFile classFile;
+		try {
+		    classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+		} catch (RuntimeException e) {
+		    // javassist can't parse some class files, nor resolve their ancestors
+		    continue;
+		}
+		if (classFile.getSuperclass() != null) {
+		    pending.add(classFile.getSuperclass());
+		}
+		for (String i : classFile.getInterfaces()) {
+		    pending.add(i);
+		}
+	    }
+	    byte[] hash = digest.digest();
+	    char[] key = new char[hash.length * 2];
+	    for (int i = 0; i < hash.length; i++) {
+		key[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+		key[2 * i + 1] = HEX[hash[i] & 0xf];
+	    }
+	    return new String(key);
+	} catch (Exception e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * @param key
+     * @return The cached instrumented bytecode, or null if there's no entry
+     *         for the provided key
+     */
+    byte[] get(String key) {
+	File file = getFile(key);
+	if (file.isFile()) {
+	    try {
+		byte[] bytes = read(file);
+		hits.incrementAndGet();
+		return bytes;
+	    } catch (IOException e) {
+		LOG.warning("Could not read cache entry " + file + ": " + e.getMessage());
+	    }
+	}
+	misses.incrementAndGet();
+	return null;
+    }
+
+    /**
+     * Stores the provided instrumented bytecode
+     *
+     * @param key
+     * @param instrumentedBytes
+     */
+    void put(String key, byte[] instrumentedBytes) {
+	File file = getFile(key);
+	file.getParentFile().mkdirs();
+	// write to a temporary file first, as other JVMs might share the cache
+	File tmp = null;
+	try {
+	    tmp = File.createTempFile(key, ".tmp", file.getParentFile());
+	    OutputStream os = new FileOutputStream(tmp);
+	    try {
+		os.write(instrumentedBytes);
+	    } finally {
+		os.close();
+	    }
+	    try {
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	    } catch (AtomicMoveNotSupportedException e) {
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	    }
+	} catch (IOException e) {
+	    LOG.warning("Could not write cache entry " + file + ": " + e.getMessage());
+	    if (tmp != null) {
+		tmp.delete();
+	    }
+	}
+    }
+
+    long getHits() {
+	return hits.get();
+    }
+
+    long getMisses() {
+	return misses.get();
+    }
+
+    /**
+     * @return A summary of the cache size and hit rate
+     */
+    String getReport() {
+	long entries = 0;
+	long size = 0;
+	File[] subdirs = dir.listFiles();
+	if (subdirs != null) {
+	    for (File subdir : subdirs) {
+		File[] files = subdir.listFiles();
+		if (files != null) {
+		    for (File file : files) {
+			entries++;
+			size += file.length();
+		    }
+		}
+	    }
+	}
+	long h = hits.get();
+	long total = h + misses.get();
+	return "Instrumentation cache " + dir + ": " + entries + " entries (" + size + " bytes), " + h + "/" + total + " hits ("
+		+ (total > 0 ? (100 * h / total) : 0) + "%)";
+    }
+
+    private File getFile(String key) {
+	return new File(new File(dir, key.substring(0, 2)), key.substring(2));
+    }
+
+    private static byte[] read(File file) throws IOException {
+	return read(new FileInputStream(file), (int) file.length());
+    }
+
+    private static byte[] read(InputStream is, int size) throws IOException {
+	try {
+	    ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+	    byte[] buffer = new byte[4096];
+	    int n;
+	    while ((n = is.read(buffer)) != -1) {
+		baos.write(buffer, 0, n);
+	    }
+	    return baos.toByteArray();
+	} finally {
+	    is.close();
+	}
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import java.io.File;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * A Maven goal instrumenting the compiled classes ahead of time (see
+ * OfflineInstrumenter), so that the test JVMs don't need the agent.
+ *
+ * @goal instrument
+ * @phase process-classes
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class OfflineInstrumentationMojo extends AbstractMojo {
+
+    /**
+     * The directory containing the classes to be instrumented
+     *
+     * @parameter expression="${project.build.outputDirectory}"
+     * @required
+     */
+    private File classesDirectory;
+
+    /**
+     * Comma separated list of the packages to be instrumented (e.g. org/foo);
+     * the * and ** wildcards are supported
+     *
+     * @parameter expression="${testedby.include}"
+     */
+    private String include;
+
+    /**
+     * Comma separated list of the packages not to be instrumented
+     *
+     * @parameter expression="${testedby.exclude}"
+     */
+    private String exclude;
+
+    /**
+     * Comma separated list of the class name fragments not to be instrumented
+     *
+     * @parameter expression="${testedby.classesExclude}"
+     */
+    private String classesExclude;
+
+    /**
+     * The probes to be used, either call (default) or array
+     *
+     * @parameter expression="${testedby.probes}"
+     */
+    private String probes;
+
+    /**
+     * The tracking granularity, either method (default) or class
+     *
+     * @parameter expression="${testedby.granularity}"
+     */
+    private String granularity;
+
+    /**
+     * Comma separated list of the kinds of methods not to be tracked
+     * (synthetic, bridge, accessor)
+     *
+     * @parameter expression="${testedby.skip}"
+     */
+    private String skip;
+
+    /**
+     * Whether the tasks submitted to executors are to be tracked for the
+     * submitting test
+     *
+     * @parameter expression="${testedby.propagateContext}"
+     */
+    private String propagateContext;
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.apache.maven.plugin.Mojo#execute()
+     */
+    public void execute() throws MojoExecutionException {
+	if (classesDirectory == null || !classesDirectory.isDirectory()) {
+	    getLog().info("No classes to instrument");
+	    return;
+	}
+	StringBuilder arguments = new StringBuilder();
+	appendArgument(arguments, "include", include);
+	appendArgument(arguments, "exclude", exclude);
+	appendArgument(arguments, "classesExclude", classesExclude);
+	appendArgument(arguments, "probes", probes);
+	appendArgument(arguments, "granularity", granularity);
+	appendArgument(arguments, "skip", skip);
+	appendArgument(arguments, "propagateContext", propagateContext);
+	try {
+	    int count = new OfflineInstrumenter(arguments.length() > 0 ? arguments.toString() : null).instrument(classesDirectory);
+	    getLog().info("Instrumented " + count + " classes");
+	} catch (Exception e) {
+	    throw new MojoExecutionException("Could not instrument classes in " + classesDirectory, e);
+	}
+    }
+
+    private static void appendArgument(StringBuilder arguments, String key, String value) {
+	if (value != null && value.trim().length() > 0) {
+	    if (arguments.length() > 0) {
+		arguments.append("#");
+	    }
+	    arguments.append(key);
+	    arguments.append("=");
+	    arguments.append(value.trim());
+	}
+    }
+}
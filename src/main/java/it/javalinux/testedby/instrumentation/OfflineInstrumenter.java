@@ -0,0 +1,155 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+
+/**
+ * Instruments compiled classes ahead of time, rewriting the class files of a
+ * given directory (usually target/classes) so that test JVMs can run the
+ * instrumented bytecode without the agent.
+ *
+ * The same arguments of the agent are supported (include, exclude,
+ * classesExclude, probes, granularity, skip, propagateContext); the classes
+ * are instrumented in a self registering way, as the method ids can only be
+ * assigned by the JVM running them.
+ * Classes that have already been instrumented are left untouched.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class OfflineInstrumenter {
+
+    private static Logger LOG = Logger.getLogger(OfflineInstrumenter.class.getName());
+
+    private final AgentConfiguration configuration;
+
+    private final ClassInstrumenter instrumenter;
+
+    /**
+     * @param arguments
+     *            The instrumentation arguments, in the same format of the
+     *            agent ones
+     */
+    public OfflineInstrumenter(String arguments) {
+	// parsed on its own, not to affect the agent possibly running in this JVM
+	this.configuration = new AgentConfiguration(arguments);
+	this.instrumenter = new ClassInstrumenter(configuration.probeArrays, true, configuration.classGranularity, configuration.skip,
+		configuration.propagateContext);
+    }
+
+    /**
+     * Instruments the classes in the provided directory
+     *
+     * @param classesDir
+     *            The root directory of the compiled classes
+     * @return The number of instrumented classes
+     * @throws Exception
+     */
+    public int instrument(File classesDir) throws Exception {
+	ClassPool pool = new ClassPool(true);
+	pool.appendClassPath(new ClassClassPath(OfflineInstrumenter.class));
+	pool.insertClassPath(classesDir.getPath());
+	int count = instrument(pool, classesDir, "");
+	LOG.info("Instrumented " + count + " classes in " + classesDir);
+	return count;
+    }
+
+    private int instrument(ClassPool pool, File dir, String packagePrefix) throws Exception {
+	int count = 0;
+	File[] files = dir.listFiles();
+	if (files == null) {
+	    return 0;
+	}
+	for (File file : files) {
+	    String name = file.getName();
+	    if (file.isDirectory()) {
+		count += instrument(pool, file, packagePrefix + name + "/");
+	    } else if (name.endsWith(".class")) {
+		String className = packagePrefix + name.substring(0, name.length() - ".class".length());
+		if (configuration.isInstrumentationRequired(className)) {
+		    byte[] modified = instrumenter.instrument(pool, className, read(file));
+		    if (modified != null) {
+			write(file, modified);
+			count++;
+		    }
+		}
+	    }
+	}
+	return count;
+    }
+
+    private static byte[] read(File file) throws IOException {
+	InputStream is = new FileInputStream(file);
+	try {
+	    ByteArrayOutputStream baos = new ByteArrayOutputStream((int) file.length());
+	    byte[] buffer = new byte[4096];
+	    int n;
+	    while ((n = is.read(buffer)) != -1) {
+		baos.write(buffer, 0, n);
+	    }
+	    return baos.toByteArray();
+	} finally {
+	    is.close();
+	}
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+	OutputStream os = new FileOutputStream(file);
+	try {
+	    os.write(bytes);
+	} finally {
+	    os.close();
+	}
+    }
+
+    /**
+     * Command line entry point
+     *
+     * @param args
+     *            The classes directory, optionally followed by the
+     *            instrumentation arguments (e.g.
+     *            include=org/foo#exclude=org/foo/bar)
+     */
+    public static void main(String[] args) {
+	if (args.length < 1 || args.length > 2) {
+	    System.err.println("Usage: java " + OfflineInstrumenter.class.getName() + " <classesDir> [arguments]");
+	    System.exit(1);
+	}
+	try {
+	    new OfflineInstrumenter(args.length > 1 ? args[1] : null).instrument(new File(args[0]));
+	} catch (Exception e) {
+	    e.printStackTrace();
+	    System.exit(1);
+	}
+    }
+}
@@ -49,6 +49,16 @@ public class StatusMetadata implements Metadata, Mergeable {
     
     private boolean onAbstract;
 
+    // the number of invocations of the tested method on the last run, if counted
+    private long invocationCount;
+
+    // the resources used by the test on the last run, if measured (-1 otherwise)
+    private long wallTimeNanos = -1;
+
+    private long cpuTimeNanos = -1;
+
+    private long allocatedBytes = -1;
+
     public StatusMetadata() {
 	super();
 	creationDateInMillis = (new Date()).getTime();
@@ -184,6 +194,10 @@ public class StatusMetadata implements Metadata, Mergeable {
 	status.justCreated = this.justCreated;
 	status.passedOnLastRun = this.passedOnLastRun;
 	status.valid = this.valid;
+	status.invocationCount = this.invocationCount;
+	status.wallTimeNanos = this.wallTimeNanos;
+	status.cpuTimeNanos = this.cpuTimeNanos;
+	status.allocatedBytes = this.allocatedBytes;
 	return status;
     }
 
@@ -231,9 +245,21 @@ public class StatusMetadata implements Metadata, Mergeable {
 	    this.fromInstrumentation |= r.isFromInstrumentation();
 	    this.justCreated = this.justCreated && r.isJustCreated();
 	    if (creationDateInMillis > r.getCreationDateInMillis()) {
-		//do nothing this.passedOnLastRun is the one to be kept
+		//this.passedOnLastRun is the one to be kept, the measures and count too unless missing
+		if (!this.isMeasured() && r.isMeasured()) {
+		    copyMeasures(r);
+		}
+		if (!this.isCounted() && r.isCounted()) {
+		    this.invocationCount = r.getInvocationCount();
+		}
 	    } else {
 		this.passedOnLastRun = r.isPassedOnLastRun();
+		if (r.isCounted()) {
+		    this.invocationCount = r.getInvocationCount();
+		}
+		if (r.isMeasured()) {
+		    copyMeasures(r);
+		}
 	    }
 	    this.valid = this.valid && r.isValid();
 	    return true;
@@ -242,6 +268,12 @@ public class StatusMetadata implements Metadata, Mergeable {
 	}
     }
 
+    private void copyMeasures(StatusMetadata r) {
+	this.wallTimeNanos = r.getWallTimeNanos();
+	this.cpuTimeNanos = r.getCpuTimeNanos();
+	this.allocatedBytes = r.getAllocatedBytes();
+    }
+
     /**
      * @return upperMostClassInHierarchyDefiningThisMetadata
      */
@@ -281,9 +313,98 @@ public class StatusMetadata implements Metadata, Mergeable {
 				+ ", upperMostClassInHierarchyDefiningThisMetadata="
 				+ upperMostClassInHierarchyDefiningThisMetadata
 				+ ", creationDateInMillis=" + creationDateInMillis
-				+ ", onAbstract=" + onAbstract + "]";
+				+ ", onAbstract=" + onAbstract
+				+ ", invocationCount=" + invocationCount
+				+ ", wallTimeNanos=" + wallTimeNanos
+				+ ", cpuTimeNanos=" + cpuTimeNanos
+				+ ", allocatedBytes=" + allocatedBytes + "]";
 	}
 
+    /**
+     * @return The number of times the tested method was invoked by the test
+     *         on the last run (0 if invocations were not counted)
+     */
+    public long getInvocationCount() {
+	return invocationCount;
+    }
+
+    /**
+     * @param invocationCount Sets invocationCount to the specified value.
+     * @return the modified object itself
+     */
+    public StatusMetadata setInvocationCount(long invocationCount) {
+	this.invocationCount = invocationCount;
+        return this;
+    }
+
+    /**
+     * @return True if the invocations of the tested method have been counted
+     *         on the last run
+     */
+    public boolean isCounted() {
+	return invocationCount > 0;
+    }
+
+    /**
+     * @return True if the resources used by the test on the last run have
+     *         been measured
+     */
+    public boolean isMeasured() {
+	return wallTimeNanos >= 0;
+    }
+
+    /**
+     * @return The wall clock time of the last run of the test, in nanoseconds
+     *         (-1 if not measured)
+     */
+    public long getWallTimeNanos() {
+	return wallTimeNanos;
+    }
+
+    /**
+     * @param wallTimeNanos Sets wallTimeNanos to the specified value.
+     * @return the modified object itself
+     */
+    public StatusMetadata setWallTimeNanos(long wallTimeNanos) {
+	this.wallTimeNanos = wallTimeNanos;
+        return this;
+    }
+
+    /**
+     * @return The CPU time used by the thread running the test on the last
+     *         run, in nanoseconds (-1 if not measured or not supported by the
+     *         JVM)
+     */
+    public long getCpuTimeNanos() {
+	return cpuTimeNanos;
+    }
+
+    /**
+     * @param cpuTimeNanos Sets cpuTimeNanos to the specified value.
+     * @return the modified object itself
+     */
+    public StatusMetadata setCpuTimeNanos(long cpuTimeNanos) {
+	this.cpuTimeNanos = cpuTimeNanos;
+        return this;
+    }
+
+    /**
+     * @return The bytes allocated by the thread running the test on the last
+     *         run (-1 if not measured or not supported by the JVM)
+     */
+    public long getAllocatedBytes() {
+	return allocatedBytes;
+    }
+
+    /**
+     * @param allocatedBytes Sets allocatedBytes to the specified value.
+     * @return the modified object itself
+     */
+    public StatusMetadata setAllocatedBytes(long allocatedBytes) {
+	this.allocatedBytes = allocatedBytes;
+        return this;
+    }
+
     /**
      * @return creationDateInMillis
      */
@@ -27,6 +27,12 @@ import java.util.List;
  * This metadata interface defines what can be known about the tests and the
  * code under test
  * 
+ * Each query can be performed with either classes and methods or their
+ * names (see MethodMetadata); the latter don't require the classes to be
+ * loaded. Queries including methods consider the public methods of a loaded
+ * class, while they consider every linked method of the class when
+ * performed by class name.
+ * 
  * @author alessio.soldano@javalinux.it
  * @since 27-Aug-2009
  * 
@@ -64,6 +70,18 @@ public interface TestsMetadata extends Metadata, Mergeable {
      */
     public List<ClassLinkMetadata> getClassesTestedBy(Class<?> clazz, boolean includeMethods);
 
+    /**
+     * Returns the classes tested (classes under test) by the provided class
+     * 
+     * @param className
+     *            The full qualified name of the class
+     * @param includeMethods
+     *            True to return classes tested by even a single method of the
+     *            specified test class
+     * @return a set with the full qualified name of classes
+     */
+    public List<ClassLinkMetadata> getClassesTestedBy(String className, boolean includeMethods);
+
     /**
      * Returns the methods (methods under test) tested by the provided class and
      * method
@@ -75,6 +93,18 @@ public interface TestsMetadata extends Metadata, Mergeable {
      */
     public List<MethodLinkMetadata> getMethodsTestedBy(Class<?> clazz, Method method);
 
+    /**
+     * Returns the methods (methods under test) tested by the provided class and
+     * method
+     * 
+     * @param className
+     *            The full qualified name of the class
+     * @param methodMetadata
+     * @return a map whose keys are the class names and whose values are sets of
+     *         methods of the corresponding class.
+     */
+    public List<MethodLinkMetadata> getMethodsTestedBy(String className, MethodMetadata methodMetadata);
+
     /**
      * Returns the methods (methods under test) tested by the provided class
      * 
@@ -87,6 +117,19 @@ public interface TestsMetadata extends Metadata, Mergeable {
      */
     public List<MethodLinkMetadata> getMethodsTestedBy(Class<?> clazz, boolean includeMethods);
 
+    /**
+     * Returns the methods (methods under test) tested by the provided class
+     * 
+     * @param className
+     *            The full qualified name of the class
+     * @param includeMethods
+     *            True to return methods tested by even a single method of the
+     *            specified test class
+     * @return a map whose keys are the class names and whose values are sets of
+     *         methods of the corresponding class.
+     */
+    public List<MethodLinkMetadata> getMethodsTestedBy(String className, boolean includeMethods);
+
     /**
      * Returns the test classes that test the provided class and method
      * 
@@ -96,6 +139,16 @@ public interface TestsMetadata extends Metadata, Mergeable {
      */
     public List<ClassLinkMetadata> getTestClassesFor(Class<?> clazz, Method method);
 
+    /**
+     * Returns the test classes that test the provided class and method
+     * 
+     * @param className
+     *            The full qualified name of the class
+     * @param methodMetadata
+     * @return a set with the full qualified name of classes
+     */
+    public List<ClassLinkMetadata> getTestClassesFor(String className, MethodMetadata methodMetadata);
+
     /**
      * Returns the test classes that test the provided class
      * 
@@ -107,6 +160,18 @@ public interface TestsMetadata extends Metadata, Mergeable {
      */
     public List<ClassLinkMetadata> getTestClassesFor(Class<?> clazz, boolean includeMethods);
 
+    /**
+     * Returns the test classes that test the provided class
+     * 
+     * @param className
+     *            The full qualified name of the class
+     * @param includeMethods
+     *            True to return test classes testing even a single method of
+     *            the specified class
+     * @return a set with the full qualified name of classes
+     */
+    public List<ClassLinkMetadata> getTestClassesFor(String className, boolean includeMethods);
+
     
     /**
      * Returns the test methods that test the provided class and method
@@ -118,6 +183,17 @@ public interface TestsMetadata extends Metadata, Mergeable {
      */
     public List<MethodLinkMetadata> getTestMethodsFor(Class<?> clazz, Method method);
 
+    /**
+     * Returns the test methods that test the provided class and method
+     * 
+     * @param className
+     *            The full qualified name of the class
+     * @param methodMetadata
+     * @return a map whose keys are the class names and whose values are sets of
+     *         methods of the corresponding class.
+     */
+    public List<MethodLinkMetadata> getTestMethodsFor(String className, MethodMetadata methodMetadata);
+
     /**
      * Returns the test methods that test the provided class
      * 
@@ -130,6 +206,19 @@ public interface TestsMetadata extends Metadata, Mergeable {
      */
     public List<MethodLinkMetadata> getTestMethodsFor(Class<?> clazz, boolean includeMethods);
 
+    /**
+     * Returns the test methods that test the provided class
+     * 
+     * @param className
+     *            The full qualified name of the class
+     * @param includeMethods
+     *            True to return test methods testing even a single method of
+     *            the specified class
+     * @return a map whose keys are the class names and whose values are sets of
+     *         methods of the corresponding class.
+     */
+    public List<MethodLinkMetadata> getTestMethodsFor(String className, boolean includeMethods);
+
     /**
      * Returns the test methods that test the provided class, recursing over
      * superclasses / interfaces of the provided class.
@@ -143,6 +232,74 @@ public interface TestsMetadata extends Metadata, Mergeable {
      */
     public List<MethodLinkMetadata> getTestMethodsForRecursive(Class<?> clazz, boolean includeMethods);
 
+    /**
+     * Returns the test methods that test the provided class, recursing over
+     * superclasses / interfaces of the provided class. The class is not
+     * loaded, hence only the type hierarchy recorded in the metadata is
+     * recursed over.
+     * 
+     * @param className
+     *            The full qualified name of the class
+     * @param includeMethods
+     *            True to return test methods testing even a single method of
+     *            the specified class
+     * @return a map whose keys are the class names and whose values are sets of
+     *         methods of the corresponding class.
+     */
+    public List<MethodLinkMetadata> getTestMethodsForRecursive(String className, boolean includeMethods);
+
+    /**
+     * Returns the methods tested by the provided test class and method, the
+     * most invoked first (invocations are counted when tracking in counting
+     * mode, see InvocationTracker)
+     * 
+     * @param clazz
+     * @param method
+     * @param max
+     *            The max number of methods to return
+     * @return the most invoked methods
+     */
+    public List<MethodLinkMetadata> getHottestMethodsTestedBy(Class<?> clazz, Method method, int max);
+
+    /**
+     * Returns the methods tested by the provided test class and method, the
+     * most invoked first
+     * 
+     * @param className
+     *            The full qualified name of the test class
+     * @param methodMetadata
+     * @param max
+     *            The max number of methods to return
+     * @return the most invoked methods
+     */
+    public List<MethodLinkMetadata> getHottestMethodsTestedBy(String className, MethodMetadata methodMetadata, int max);
+
+    /**
+     * Returns the test methods that test the provided class and method, the
+     * ones invoking it the most first (invocations are counted when tracking
+     * in counting mode, see InvocationTracker)
+     * 
+     * @param clazz
+     * @param method
+     * @param max
+     *            The max number of test methods to return
+     * @return the test methods invoking the provided method the most
+     */
+    public List<MethodLinkMetadata> getTestMethodsHammering(Class<?> clazz, Method method, int max);
+
+    /**
+     * Returns the test methods that test the provided class and method, the
+     * ones invoking it the most first
+     * 
+     * @param className
+     *            The full qualified name of the class
+     * @param methodMetadata
+     * @param max
+     *            The max number of test methods to return
+     * @return the test methods invoking the provided method the most
+     */
+    public List<MethodLinkMetadata> getTestMethodsHammering(String className, MethodMetadata methodMetadata, int max);
+
     /**
      * Returns all tested classes currently hold in the metadata model
      * 
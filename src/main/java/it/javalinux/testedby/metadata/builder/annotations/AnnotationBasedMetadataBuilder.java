@@ -215,6 +215,8 @@ public class AnnotationBasedMetadataBuilder implements MetaDataBuilder {
 	status.setUpperMostClassInHierarchyDefiningThisMetadata(upperMostClassInHierarchyDefiningThisMetadata);
 	status.setOnAbstract(onAbstract);
 	String[] testMethodsNames = createTestMethodsNameList(testClasses, testClassName, testedBy.testMethod());
+	// the class under test is loaded already, its hierarchy is recorded for the recursive queries
+	repository.addType(clazz);
 	if (testMethodsNames.length == 0 && !isOnlyValidLinkConsidered()) {
 	    repository.addConnection(testClassName, null, null, clazz.getCanonicalName(), methodUTName, methodUTParameters, status);
 	} else {
@@ -0,0 +1,88 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free bit set that can be written by many threads at the same time;
+ * setting a bit that's already set is a plain volatile read.
+ *
+ * The bits are stored in chunks that are only allocated when one of their
+ * bits is first set; up to 2^26 bits are supported, which is way more than
+ * the methods the MethodRegistry can be expected to hold.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+class AtomicBitSet {
+
+    // 2^16 bits (1024 longs) per chunk
+    private static final int CHUNK_SHIFT = 16;
+
+    private static final int CHUNK_WORDS = 1 << (CHUNK_SHIFT - 6);
+
+    private static final int MAX_CHUNKS = 1 << 10;
+
+    private final AtomicReferenceArray<AtomicLongArray> chunks = new AtomicReferenceArray<AtomicLongArray>(MAX_CHUNKS);
+
+    /**
+     * @param index
+     */
+    void set(int index) {
+	int c = index >>> CHUNK_SHIFT;
+	AtomicLongArray chunk = chunks.get(c);
+	if (chunk == null) {
+	    chunks.compareAndSet(c, null, new AtomicLongArray(CHUNK_WORDS));
+	    chunk = chunks.get(c);
+	}
+	int word = (index >>> 6) & (CHUNK_WORDS - 1);
+	long mask = 1L << index;
+	long value = chunk.get(word);
+	while ((value & mask) == 0 && !chunk.compareAndSet(word, value, value | mask)) {
+	    value = chunk.get(word);
+	}
+    }
+
+    /**
+     * Sets the bits of this set in the provided one
+     *
+     * @param set
+     */
+    void copyTo(BitSet set) {
+	for (int c = 0; c < MAX_CHUNKS; c++) {
+	    AtomicLongArray chunk = chunks.get(c);
+	    if (chunk != null) {
+		for (int w = 0; w < CHUNK_WORDS; w++) {
+		    long value = chunk.get(w);
+		    while (value != 0) {
+			int bit = Long.numberOfTrailingZeros(value);
+			set.set((c << CHUNK_SHIFT) + (w << 6) + bit);
+			value &= value - 1;
+		    }
+		}
+	    }
+	}
+    }
+}
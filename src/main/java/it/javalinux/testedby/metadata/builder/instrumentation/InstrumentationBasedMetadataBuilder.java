@@ -26,28 +26,128 @@ import it.javalinux.testedby.metadata.impl.Helper;
 import it.javalinux.testedby.metadata.impl.MetadataRepository;
 
 import java.lang.reflect.Method;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A metadata builder based on the data collected through instrumentation
  * 
+ * When running in a forked JVM configured with an InvocationCollector
+ * address (see InvocationPublisher), the invocations collected at each
+ * build step are also published to the collector.
+ * 
+ * In pipeline mode (see InstrumentationBasedMetadataBuilder(int)) the
+ * links of the build steps are created by a background thread, so that the
+ * next test can be run in the meantime; steps are handed to the background
+ * thread through a bounded queue, hence the test thread blocks when the
+ * queue is full. Pending steps are completed before the metadata is
+ * returned or reset; should the background thread die, submitting or
+ * waiting for steps fails instead of blocking forever.
+ * 
  * @author alessio.soldano@javalinux.it
  * @since 20-Sep-2009
  * 
  */
 public class InstrumentationBasedMetadataBuilder {
 
-    private MetadataRepository metadata;
+    private volatile MetadataRepository metadata;
+
+    private final BlockingQueue<Runnable> pipeline;
+
+    private final Thread consumer;
+
+    private long submittedSteps;
+
+    private long completedSteps;
+
+    private Throwable pipelineFailure;
 
     public InstrumentationBasedMetadataBuilder() {
+	this(0);
+    }
+
+    /**
+     * @param pipelineCapacity	The max number of build steps waiting to be
+     * 				performed in background; 0 disables the pipeline
+     * 				mode, build steps are performed on the caller
+     * 				thread
+     */
+    public InstrumentationBasedMetadataBuilder(int pipelineCapacity) {
 	reset();
+	if (pipelineCapacity > 0) {
+	    pipeline = new ArrayBlockingQueue<Runnable>(pipelineCapacity);
+	    consumer = new Thread("TestedBy build step pipeline") {
+		@Override
+		public void run() {
+		    consume();
+		}
+	    };
+	    consumer.setDaemon(true);
+	    consumer.start();
+	} else {
+	    pipeline = null;
+	    consumer = null;
+	}
     }
 
     public void reset() {
+	flush();
 	this.metadata = new MetadataRepository();
     }
 
+    /**
+     * @return true if build steps are performed in background
+     */
+    public boolean isPipelined() {
+	return pipeline != null;
+    }
+
+    /**
+     * Waits for the build steps submitted so far to be performed; this is a
+     * no-op when the pipeline mode is off.
+     * 
+     * @throws RuntimeException	The first failure of a background step, if
+     * 				any occurred since the last flush (errors are
+     * 				rethrown as they are)
+     * @throws IllegalStateException	If the background thread is not running
+     * 				anymore while steps are pending
+     */
+    public void flush() {
+	if (pipeline == null) {
+	    return;
+	}
+	synchronized (pipeline) {
+	    try {
+		while (completedSteps < submittedSteps) {
+		    checkConsumer();
+		    pipeline.wait(1000);
+		}
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new RuntimeException("Interrupted while waiting for the pending build steps", e);
+	    }
+	    Throwable failure = pipelineFailure;
+	    pipelineFailure = null;
+	    if (failure instanceof RuntimeException) {
+		throw (RuntimeException) failure;
+	    } else if (failure instanceof Error) {
+		throw (Error) failure;
+	    } else if (failure != null) {
+		throw new RuntimeException(failure);
+	    }
+	}
+    }
+
+    private void checkConsumer() {
+	if (!consumer.isAlive()) {
+	    throw new IllegalStateException("The build step pipeline is not running, " + (submittedSteps - completedSteps) + " build steps can't be performed");
+	}
+    }
+
     /**
      * Run a single build step linking information coming from instrumentation
      * to the specified test method run.
@@ -74,7 +174,7 @@ public class InstrumentationBasedMetadataBuilder {
      *            (the status is cloned)
      */
     public void performBuildStep(Class<?> testClass, Method testMethod, StatusMetadata status) {
-	performBuildStep(InvocationTracker.getInstance().getInvokedMethodMap(), testClass, testMethod);
+	performBuildStep(testClass.getCanonicalName(), testMethod.getName(), Helper.getParameterTypesAsStringArray(testMethod), status);
     }
 
     /**
@@ -107,7 +207,113 @@ public class InstrumentationBasedMetadataBuilder {
      *            status is cloned)
      */
     public void performBuildStep(String testClass, String testMethod, String[] parameterTypes, StatusMetadata status) {
-	performBuildStep(InvocationTracker.getInstance().getInvokedMethodMap(), testClass, testMethod, parameterTypes, status);
+	// the current tracker is replaced and its invocations are read in place
+	performBuildStep(InvocationTracker.handOff(), testClass, testMethod, parameterTypes, status);
+    }
+
+    /**
+     * Run a single build step linking the information collected by the
+     * provided tracker to the specified test method run; this is meant for
+     * tests run in their own tracking context (see InvocationTracker.begin),
+     * hence it can be called concurrently for different tests.
+     * 
+     * @param tracker
+     *            The tracker of the test that has just been run
+     * @param testClass
+     *            The test class that has just been run
+     * @param testMethod
+     *            The test method that has just been run
+     * @param parameterTypes
+     *            The parameters of the test method that has just been run
+     * @param status
+     *            The status to be assigned to the link created in this step (the
+     *            status is cloned)
+     */
+    public void performBuildStep(final InvocationTracker tracker, final String testClass, final String testMethod, final String[] parameterTypes, final StatusMetadata status) {
+	// the tracker is not written anymore, its invocations can be read later
+	final BitSet invoked = tracker.getInvokedMethods();
+	Runnable step = new Runnable() {
+	    public void run() {
+		InvocationPublisher publisher = InvocationPublisher.getInstance();
+		if (publisher != null) {
+		    publisher.publish(testClass, testMethod, parameterTypes, status, InvocationTracker.toMap(invoked), tracker.isCountingInvocations() ? InvocationTracker.toCountMap(invoked, tracker) : null);
+		}
+		performBuildStep(invoked, tracker.isCountingInvocations() ? tracker : null, testClass, testMethod, parameterTypes, status);
+	    }
+	};
+	if (pipeline == null) {
+	    step.run();
+	} else {
+	    submit(step);
+	}
+    }
+
+    /**
+     * Completes the pending build steps and stops the background thread of
+     * the pipeline mode; no more build steps are to be performed afterwards.
+     */
+    public void close() {
+	if (pipeline != null) {
+	    try {
+		flush();
+	    } finally {
+		consumer.interrupt();
+	    }
+	}
+    }
+
+    private void submit(Runnable step) {
+	synchronized (pipeline) {
+	    submittedSteps++;
+	}
+	try {
+	    // blocks while the consumer is falling behind
+	    while (!pipeline.offer(step, 1, TimeUnit.SECONDS)) {
+		synchronized (pipeline) {
+		    checkConsumer();
+		}
+	    }
+	} catch (InterruptedException e) {
+	    cancel();
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException("Interrupted while submitting a build step", e);
+	} catch (IllegalStateException e) {
+	    cancel();
+	    throw e;
+	}
+    }
+
+    private void cancel() {
+	synchronized (pipeline) {
+	    submittedSteps--;
+	    pipeline.notifyAll();
+	}
+    }
+
+    private void consume() {
+	while (true) {
+	    Runnable step;
+	    try {
+		step = pipeline.take();
+	    } catch (InterruptedException e) {
+		return;
+	    }
+	    Throwable failure = null;
+	    try {
+		step.run();
+	    } catch (Throwable t) {
+		// the consumer keeps running, the failure is reported by flush()
+		failure = t;
+	    } finally {
+		synchronized (pipeline) {
+		    completedSteps++;
+		    if (failure != null && pipelineFailure == null) {
+			pipelineFailure = failure;
+		    }
+		    pipeline.notifyAll();
+		}
+	    }
+	}
     }
 
     void performBuildStep(Map<String, Set<String>> invocationsMap, Class<?> testClass, Method testMethod) {
@@ -119,21 +325,80 @@ public class InstrumentationBasedMetadataBuilder {
     }
 
     void performBuildStep(Map<String, Set<String>> invocationsMap, String testClass, String testMethod, String[] parameterTypes, StatusMetadata status) {
+	performBuildStep(invocationsMap, null, testClass, testMethod, parameterTypes, status);
+    }
+
+    void performBuildStep(Map<String, Set<String>> invocationsMap, Map<String, Long> invocationCounts, String testClass, String testMethod, String[] parameterTypes, StatusMetadata status) {
+	// the repository is thread safe, steps of different tests can be performed concurrently
+	MetadataRepository metadata = this.metadata;
 	for (String testedClass : invocationsMap.keySet()) {
-	    for (String testedMethod : invocationsMap.get(testedClass)) {
-		if (status == null) {
-		    status = new StatusMetadata();
-		    status.setFromInstrumentation(true);
-		    status.setValid(true);
-		} else {
-		    status = (StatusMetadata) status.clone();
-		}
-		metadata.addConnection(testClass, testMethod, parameterTypes, testedClass, Helper.getMethodNameFromJavaAssistLongName(testedMethod), Helper.getMethodParametersFromJavaAssistLongName(testedMethod), status);
+	    Set<String> testedMethods = invocationsMap.get(testedClass);
+	    if (testedMethods.isEmpty()) {
+		// class granularity, link the class only
+		metadata.addConnection(testClass, testMethod, parameterTypes, testedClass, null, null, getStatus(status, invocationCounts, testedClass));
+	    }
+	    for (String testedMethod : testedMethods) {
+		metadata.addConnection(testClass, testMethod, parameterTypes, testedClass, Helper.getMethodNameFromJavaAssistLongName(testedMethod), Helper.getMethodParametersFromJavaAssistLongName(testedMethod), getStatus(status, invocationCounts, testedMethod));
+	    }
+	}
+    }
+
+    void performBuildStep(BitSet invoked, InvocationTracker counts, String testClass, String testMethod, String[] parameterTypes, StatusMetadata status) {
+	MetadataRepository metadata = this.metadata;
+	MethodRegistry registry = MethodRegistry.getInstance();
+	for (int id = invoked.nextSetBit(0); id >= 0; id = invoked.nextSetBit(id + 1)) {
+	    StatusMetadata linkStatus = getStatus(status);
+	    if (counts != null) {
+		linkStatus.setInvocationCount(counts.getInvocationCount(id));
+	    }
+	    // class granularity ids have no method, the class only is linked
+	    metadata.addConnection(testClass, testMethod, parameterTypes, registry.getClassName(id), registry.getMethodName(id), registry.getMethodParameterTypes(id), linkStatus);
+	    addType(metadata, registry, registry.getClassName(id));
+	}
+    }
+
+    /**
+     * Records the hierarchy of the provided class in the repository, as
+     * registered when instrumenting the classes
+     * 
+     * @param metadata
+     * @param registry
+     * @param className
+     */
+    private static void addType(MetadataRepository metadata, MethodRegistry registry, String className) {
+	if (metadata.hasType(className)) {
+	    return;
+	}
+	String[] supertypes = registry.getSupertypes(className);
+	if (supertypes != null) {
+	    metadata.addType(className, supertypes);
+	    for (String supertype : supertypes) {
+		addType(metadata, registry, supertype);
 	    }
 	}
     }
 
+    private static StatusMetadata getStatus(StatusMetadata status, Map<String, Long> invocationCounts, String key) {
+	StatusMetadata linkStatus = getStatus(status);
+	Long count = invocationCounts != null ? invocationCounts.get(key) : null;
+	if (count != null) {
+	    linkStatus.setInvocationCount(count);
+	}
+	return linkStatus;
+    }
+
+    private static StatusMetadata getStatus(StatusMetadata status) {
+	if (status == null) {
+	    status = new StatusMetadata();
+	    status.setFromInstrumentation(true);
+	    status.setValid(true);
+	    return status;
+	}
+	return (StatusMetadata) status.clone();
+    }
+
     public TestsMetadata getMetadata() {
+	flush();
 	return this.metadata;
     }
 
@@ -0,0 +1,278 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+import it.javalinux.testedby.metadata.StatusMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Collects the invocations published by forked test JVMs (see
+ * InvocationPublisher) and merges them into the metadata of the provided
+ * builder, as if the tests had been run in the current JVM.
+ *
+ * The collector listens on a loopback socket; the forked JVMs are to be
+ * started with the system property returned by getSystemProperty(). Each
+ * connection is read by its own thread; close() accepts the pending
+ * connections and waits for the forked JVMs to disconnect, hence it is to
+ * be called once they've exited. A connection sending a record longer than
+ * the max length (see InvocationPublisher) is closed, as it can't be coming
+ * from a publisher.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class InvocationCollector {
+
+    // how often the acceptor checks whether the collector is being closed
+    private static final int ACCEPT_TIMEOUT = 100;
+
+    private static Logger LOG = Logger.getLogger(InvocationCollector.class.getName());
+
+    private final InstrumentationBasedMetadataBuilder builder;
+
+    private final ServerSocket serverSocket;
+
+    private final Thread acceptor;
+
+    private volatile boolean closing;
+
+    private final List<Thread> readers = new CopyOnWriteArrayList<Thread>();
+
+    private final AtomicLong records = new AtomicLong();
+
+    /**
+     * Creates a collector and starts accepting connections
+     *
+     * @param builder		The builder the collected invocations are merged into
+     * @throws IOException
+     */
+    public InvocationCollector(InstrumentationBasedMetadataBuilder builder) throws IOException {
+	this.builder = builder;
+	this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+	this.serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+	this.acceptor = new Thread("TestedBy invocation collector") {
+	    @Override
+	    public void run() {
+		accept();
+	    }
+	};
+	acceptor.setDaemon(true);
+	acceptor.start();
+    }
+
+    /**
+     * @return The collector address (host:port)
+     */
+    public String getAddress() {
+	return serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return The system property to be provided to the forked JVMs
+     */
+    public String getSystemProperty() {
+	return "-D" + InvocationPublisher.COLLECTOR_PROPERTY + "=" + getAddress();
+    }
+
+    /**
+     * @return The number of test records collected so far
+     */
+    public long getCollectedRecords() {
+	return records.get();
+    }
+
+    /**
+     * @return The number of connections currently being read
+     */
+    int getActiveConnections() {
+	return readers.size();
+    }
+
+    /**
+     * Stops accepting connections and waits for the connected JVMs to
+     * complete publishing their invocations.
+     *
+     * @param timeout		The max time to wait for, in milliseconds
+     * @throws InterruptedException
+     */
+    public void close(long timeout) throws InterruptedException {
+	long deadline = System.currentTimeMillis() + timeout;
+	// the connections already established are accepted before closing
+	closing = true;
+	acceptor.join(Math.max(1, deadline - System.currentTimeMillis()));
+	closeServerSocket();
+	for (Thread reader : readers) {
+	    reader.join(Math.max(1, deadline - System.currentTimeMillis()));
+	}
+    }
+
+    private void accept() {
+	while (!serverSocket.isClosed()) {
+	    try {
+		final Socket socket = serverSocket.accept();
+		Thread reader = new Thread("TestedBy invocation reader " + socket.getPort()) {
+		    @Override
+		    public void run() {
+			try {
+			    read(socket);
+			} finally {
+			    readers.remove(this);
+			}
+		    }
+		};
+		reader.setDaemon(true);
+		readers.add(reader);
+		reader.start();
+	    } catch (SocketTimeoutException e) {
+		// no pending connection
+		if (closing) {
+		    break;
+		}
+	    } catch (IOException e) {
+		if (!serverSocket.isClosed()) {
+		    LOG.warning("Could not accept connection: " + e.getMessage());
+		}
+	    }
+	}
+	closeServerSocket();
+    }
+
+    private void closeServerSocket() {
+	try {
+	    serverSocket.close();
+	} catch (IOException e) {
+	    // ignore
+	}
+    }
+
+    private void read(Socket socket) {
+	try {
+	    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+	    int version = in.readInt();
+	    if (version != InvocationPublisher.PROTOCOL_VERSION) {
+		LOG.warning("Unsupported protocol version " + version + ", closing connection");
+		return;
+	    }
+	    while (true) {
+		int length;
+		try {
+		    length = in.readInt();
+		} catch (EOFException e) {
+		    // the forked JVM is done
+		    return;
+		}
+		if (length < 0 || length > InvocationPublisher.MAX_RECORD_LENGTH) {
+		    LOG.warning("Invalid record length " + length + ", closing connection");
+		    return;
+		}
+		byte[] record = new byte[length];
+		in.readFully(record);
+		try {
+		    readRecord(new DataInputStream(new ByteArrayInputStream(record)));
+		} catch (IOException e) {
+		    // the record is framed, the following ones can still be read
+		    LOG.warning("Skipping malformed invocations record: " + e.getMessage());
+		}
+	    }
+	} catch (IOException e) {
+	    LOG.warning("Error while reading invocations: " + e.getMessage());
+	} finally {
+	    try {
+		socket.close();
+	    } catch (IOException e) {
+		// ignore
+	    }
+	}
+    }
+
+    private void readRecord(DataInputStream in) throws IOException {
+	String testClass = in.readUTF();
+	String testMethod = in.readUTF();
+	String[] parameterTypes = null;
+	int count = in.readInt();
+	if (count >= 0) {
+	    parameterTypes = new String[count];
+	    for (int i = 0; i < count; i++) {
+		parameterTypes[i] = in.readUTF();
+	    }
+	}
+	StatusMetadata status = getStatus(in.readByte());
+	if (status != null) {
+	    status.setWallTimeNanos(in.readLong());
+	    status.setCpuTimeNanos(in.readLong());
+	    status.setAllocatedBytes(in.readLong());
+	}
+	boolean counted = in.readBoolean();
+	Map<String, Long> invocationCounts = counted ? new HashMap<String, Long>() : null;
+	int classes = in.readInt();
+	Map<String, Set<String>> invocationsMap = new HashMap<String, Set<String>>(classes * 2);
+	for (int i = 0; i < classes; i++) {
+	    String clazz = in.readUTF();
+	    if (counted) {
+		invocationCounts.put(clazz, in.readLong());
+	    }
+	    int methods = in.readInt();
+	    Set<String> set = new HashSet<String>(methods * 2);
+	    for (int j = 0; j < methods; j++) {
+		String method = in.readUTF();
+		set.add(method);
+		if (counted) {
+		    invocationCounts.put(method, in.readLong());
+		}
+	    }
+	    invocationsMap.put(clazz, set);
+	}
+	builder.performBuildStep(invocationsMap, invocationCounts, testClass, testMethod, parameterTypes, status);
+	records.incrementAndGet();
+    }
+
+    private static StatusMetadata getStatus(int flags) {
+	if ((flags & InvocationPublisher.STATUS_PRESENT) == 0) {
+	    return null;
+	}
+	StatusMetadata status = new StatusMetadata();
+	status.setValid((flags & InvocationPublisher.STATUS_VALID) != 0);
+	status.setJustCreated((flags & InvocationPublisher.STATUS_JUST_CREATED) != 0);
+	status.setFromAnnotation((flags & InvocationPublisher.STATUS_FROM_ANNOTATION) != 0);
+	status.setFromInstrumentation((flags & InvocationPublisher.STATUS_FROM_INSTRUMENTATION) != 0);
+	status.setPassedOnLastRun((flags & InvocationPublisher.STATUS_PASSED) != 0);
+	status.setOnAbstract((flags & InvocationPublisher.STATUS_ON_ABSTRACT) != 0);
+	return status;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per method invocation counters, indexed by method id (see MethodRegistry).
+ *
+ * Each method gets a LongAdder, whose cells are striped across the updating
+ * threads, so that methods invoked by many threads at the same time don't
+ * turn into a contention point; counters are allocated in chunks when a
+ * method of the chunk is first invoked.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+class InvocationCounters {
+
+    // 2^10 counters per chunk
+    private static final int CHUNK_SHIFT = 10;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private volatile AtomicReferenceArray<LongAdder>[] chunks = newChunks(16);
+
+    /**
+     * @param methodId
+     */
+    void increment(int methodId) {
+	int c = methodId >>> CHUNK_SHIFT;
+	AtomicReferenceArray<LongAdder>[] current = chunks;
+	if (c >= current.length || current[c] == null) {
+	    current = allocate(c);
+	}
+	AtomicReferenceArray<LongAdder> chunk = current[c];
+	int i = methodId & (CHUNK_SIZE - 1);
+	LongAdder counter = chunk.get(i);
+	if (counter == null) {
+	    chunk.compareAndSet(i, null, new LongAdder());
+	    counter = chunk.get(i);
+	}
+	counter.increment();
+    }
+
+    /**
+     * @param methodId
+     * @return The number of invocations of the provided method
+     */
+    long get(int methodId) {
+	int c = methodId >>> CHUNK_SHIFT;
+	AtomicReferenceArray<LongAdder>[] current = chunks;
+	if (c >= current.length || current[c] == null) {
+	    return 0;
+	}
+	LongAdder counter = current[c].get(methodId & (CHUNK_SIZE - 1));
+	return counter != null ? counter.sum() : 0;
+    }
+
+    private synchronized AtomicReferenceArray<LongAdder>[] allocate(int c) {
+	AtomicReferenceArray<LongAdder>[] current = chunks;
+	if (c >= current.length) {
+	    AtomicReferenceArray<LongAdder>[] grown = newChunks(Math.max(c + 1, current.length * 2));
+	    System.arraycopy(current, 0, grown, 0, current.length);
+	    current = grown;
+	}
+	if (current[c] == null) {
+	    current[c] = new AtomicReferenceArray<LongAdder>(CHUNK_SIZE);
+	}
+	// publish the chunk through the volatile field
+	chunks = current;
+	return current;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<LongAdder>[] newChunks(int size) {
+	return new AtomicReferenceArray[size];
+    }
+}
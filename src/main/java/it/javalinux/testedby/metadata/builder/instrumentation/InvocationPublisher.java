@@ -0,0 +1,246 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+import it.javalinux.testedby.metadata.StatusMetadata;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the invocations collected for each test to an
+ * InvocationCollector running in another JVM; this is used by forked test
+ * JVMs, which are given the collector address through the
+ * testedby.collector system property (host:port).
+ *
+ * Each record contains the test class, method and parameter types, the
+ * status of the test run (followed by the measured resources, if there's a
+ * status) and the map of the invoked methods (followed by their invocation
+ * counts, if they've been counted), written through a DataOutputStream:
+ *
+ * <pre>
+ * int recordLength, UTF testClass, UTF testMethod, int paramCount (-1 for null), UTF param...,
+ * byte statusFlags, [long wallTimeNanos, long cpuTimeNanos, long allocatedBytes],
+ * boolean counted, int classCount,
+ * (UTF class, [long classInvocationCount], int methodCount, (UTF method, [long invocationCount])...)...
+ * </pre>
+ *
+ * Records are serialized in memory first and then sent with their length, so
+ * a record that can't be serialized (e.g. a name longer than 64KB) is
+ * skipped without affecting the following ones; the publisher is instead
+ * disabled after the first failure writing to the collector, as the latter
+ * can't tell where the partially written record ends.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class InvocationPublisher {
+
+    public static final String COLLECTOR_PROPERTY = "testedby.collector";
+
+    static final int PROTOCOL_VERSION = 3;
+
+    // the max length of a record, the collector dropping the connections sending longer ones
+    static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    static final int STATUS_PRESENT = 0x80;
+    static final int STATUS_VALID = 0x01;
+    static final int STATUS_JUST_CREATED = 0x02;
+    static final int STATUS_FROM_ANNOTATION = 0x04;
+    static final int STATUS_FROM_INSTRUMENTATION = 0x08;
+    static final int STATUS_PASSED = 0x10;
+    static final int STATUS_ON_ABSTRACT = 0x20;
+
+    private static Logger LOG = Logger.getLogger(InvocationPublisher.class.getName());
+
+    private static InvocationPublisher instance;
+
+    private static boolean initialized;
+
+    private final Socket socket;
+
+    private final DataOutputStream out;
+
+    private boolean failed;
+
+    /**
+     * @return The publisher for the collector configured through the
+     *         testedby.collector system property, or null if no collector
+     *         is configured or it can't be reached
+     */
+    public static synchronized InvocationPublisher getInstance() {
+	if (!initialized) {
+	    initialized = true;
+	    String address = System.getProperty(COLLECTOR_PROPERTY);
+	    if (address != null && address.trim().length() > 0) {
+		try {
+		    instance = new InvocationPublisher(address.trim());
+		    final InvocationPublisher publisher = instance;
+		    Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+			    publisher.close();
+			}
+		    });
+		} catch (IOException e) {
+		    LOG.warning("Could not connect to the invocation collector at " + address + ": " + e.getMessage());
+		}
+	    }
+	}
+	return instance;
+    }
+
+    /**
+     * @param address		The collector address (host:port)
+     * @throws IOException
+     */
+    InvocationPublisher(String address) throws IOException {
+	int i = address.lastIndexOf(':');
+	if (i < 0) {
+	    throw new IOException("Invalid collector address: " + address);
+	}
+	socket = new Socket(address.substring(0, i), Integer.parseInt(address.substring(i + 1)));
+	socket.setTcpNoDelay(true);
+	out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	out.writeInt(PROTOCOL_VERSION);
+    }
+
+    /**
+     * Sends the invocations of a test run to the collector
+     *
+     * @param testClass
+     * @param testMethod
+     * @param parameterTypes
+     * @param status			The status of the test run (can be null)
+     * @param invocationsMap		The invoked methods, by class
+     * @param invocationCounts	The invocation counts by method long name
+     * 				(class name for class granularity), or null if
+     * 				the invocations have not been counted
+     */
+    public synchronized void publish(String testClass, String testMethod, String[] parameterTypes, StatusMetadata status, Map<String, Set<String>> invocationsMap, Map<String, Long> invocationCounts) {
+	if (failed) {
+	    return;
+	}
+	byte[] record;
+	try {
+	    record = serialize(testClass, testMethod, parameterTypes, status, invocationsMap, invocationCounts);
+	} catch (IOException e) {
+	    LOG.warning("Could not serialize the invocations of " + testClass + "#" + testMethod + ", skipping them: " + e.getMessage());
+	    return;
+	}
+	if (record.length > MAX_RECORD_LENGTH) {
+	    LOG.warning("The invocations of " + testClass + "#" + testMethod + " exceed the max record length, skipping them");
+	    return;
+	}
+	try {
+	    out.writeInt(record.length);
+	    out.write(record);
+	    out.flush();
+	} catch (IOException e) {
+	    LOG.warning("Could not publish the invocations of " + testClass + "#" + testMethod + ", no more invocations will be published: " + e.getMessage());
+	    failed = true;
+	    close();
+	}
+    }
+
+    private static byte[] serialize(String testClass, String testMethod, String[] parameterTypes, StatusMetadata status, Map<String, Set<String>> invocationsMap, Map<String, Long> invocationCounts) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream out = new DataOutputStream(bytes);
+	out.writeUTF(testClass);
+	out.writeUTF(testMethod);
+	if (parameterTypes == null) {
+	    out.writeInt(-1);
+	} else {
+	    out.writeInt(parameterTypes.length);
+	    for (String type : parameterTypes) {
+		out.writeUTF(type);
+	    }
+	}
+	out.writeByte(getStatusFlags(status));
+	if (status != null) {
+	    out.writeLong(status.getWallTimeNanos());
+	    out.writeLong(status.getCpuTimeNanos());
+	    out.writeLong(status.getAllocatedBytes());
+	}
+	out.writeBoolean(invocationCounts != null);
+	out.writeInt(invocationsMap.size());
+	for (Map.Entry<String, Set<String>> entry : invocationsMap.entrySet()) {
+	    out.writeUTF(entry.getKey());
+	    if (invocationCounts != null) {
+		out.writeLong(getCount(invocationCounts, entry.getKey()));
+	    }
+	    out.writeInt(entry.getValue().size());
+	    for (String method : entry.getValue()) {
+		out.writeUTF(method);
+		if (invocationCounts != null) {
+		    out.writeLong(getCount(invocationCounts, method));
+		}
+	    }
+	}
+	out.close();
+	return bytes.toByteArray();
+    }
+
+    private static long getCount(Map<String, Long> invocationCounts, String key) {
+	Long count = invocationCounts.get(key);
+	return count != null ? count : 0;
+    }
+
+    /**
+     * Closes the connection to the collector
+     */
+    public synchronized void close() {
+	try {
+	    if (!failed) {
+		out.flush();
+	    }
+	} catch (IOException e) {
+	    // ignore
+	} finally {
+	    try {
+		socket.close();
+	    } catch (IOException e) {
+		// ignore
+	    }
+	}
+    }
+
+    private static int getStatusFlags(StatusMetadata status) {
+	if (status == null) {
+	    return 0;
+	}
+	int flags = STATUS_PRESENT;
+	flags |= status.isValid() ? STATUS_VALID : 0;
+	flags |= status.isJustCreated() ? STATUS_JUST_CREATED : 0;
+	flags |= status.isFromAnnotation() ? STATUS_FROM_ANNOTATION : 0;
+	flags |= status.isFromInstrumentation() ? STATUS_FROM_INSTRUMENTATION : 0;
+	flags |= status.isPassedOnLastRun() ? STATUS_PASSED : 0;
+	flags |= status.isOnAbstract() ? STATUS_ON_ABSTRACT : 0;
+	return flags;
+    }
+}
@@ -22,21 +22,59 @@ package it.javalinux.testedby.metadata.builder.instrumentation;
 
 import it.javalinux.testedby.metadata.impl.Helper;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 /**
  * Collects raw metadata tracking method invocations
  * happening while running a given test. 
  * 
+ * The tracker is shared by the thread running the test and the threads
+ * it creates; each of them records the invocations in its own buffer,
+ * without any lock, and the buffers are merged when the invocations are
+ * collected. The buffers are owned by the tracker, which releases them
+ * once the test is over (see handOff and end); each thread also keeps a
+ * reference to the buffer it last recorded into, so that the buffer map
+ * is only looked up when the thread switches tracker.
+ * 
+ * When tests are run one at a time, the shared context mode (see
+ * setSharedContext) is better suited to code using many short lived
+ * (e.g. virtual) threads: a single tracker is shared by every thread
+ * in the JVM, with no thread local lookup, no copy on thread creation and
+ * no per-thread allocation, the invocations being recorded in a
+ * lock-free bit set.
+ * 
+ * In counting mode (see setCounting) the tracker also counts the
+ * invocations of each method, through striped counters.
+ * 
+ * Tests running in parallel in the same JVM are to be tracked through
+ * separate contexts (see begin and end), each having its own tracker that
+ * is bound to the thread running the test (and the threads it creates).
+ * 
+ * When a MappedCoverageBuffer is installed, the invocations are also
+ * written to it as they happen, each tracker getting its own slot when it
+ * records its first invocation within a test (i.e. once the test class has
+ * been set).
+ * 
  * @author alessio.soldano@javalinux.it
  * @since 23-Aug-2009
  *
  */
 public class InvocationTracker {
 
+    private static Logger LOG = Logger.getLogger(InvocationTracker.class.getName());
+
     private static ThreadLocal<InvocationTracker> metadataCollector = new InheritableThreadLocal<InvocationTracker>() {
 	@Override
 	protected InvocationTracker initialValue() {
@@ -44,14 +82,37 @@ public class InvocationTracker {
 	}
     };
 
+    private static volatile boolean sharedContext = Boolean.getBoolean("testedby.sharedContext");
+    private static volatile boolean counting = Boolean.getBoolean("testedby.counting");
+    // test id -> tracker of the tests currently running in their own context
+    private static Map<String, InvocationTracker> contexts = new ConcurrentHashMap<String, InvocationTracker>();
+    private static volatile boolean probeArraysWarningLogged;
+    private static volatile InvocationTracker shared = new InvocationTracker();
+    // the buffer the current thread last recorded into, whatever its tracker
+    private static ThreadLocal<Buffer> threadBuffer = new ThreadLocal<Buffer>();
+
     private String testClass;
     private String testMethod;
     
     private String currentClassUnderTest;
     
-    // a map className->methodNames of the invoked classes-methods
-    private Map<String, Set<String>> invoked = new HashMap<String, Set<String>>();
+    // the ids (see MethodRegistry) of the invoked classes-methods, as of the last merge
+    private BitSet invoked = new BitSet();
+    // the buffer of each thread recording into this tracker
+    private Map<Thread, Buffer> buffers = new ConcurrentHashMap<Thread, Buffer>();
+    // the probe calls recorded in the buffers released so far
+    private long releasedCalls;
+    // only used in shared context mode
+    private AtomicBitSet sharedInvoked;
+    private LongAdder sharedCalls;
+    // only used in counting mode
+    private InvocationCounters counters;
     private boolean skipTestClass;
+    // the slot of the coverage buffer, if any, assigned on the first invocation
+    private volatile int coverageSlot = NO_SLOT;
+    // false once the probe arrays can't be attributed to this tracker anymore
+    private boolean collectingProbeArrays = true;
+    private static final int NO_SLOT = -2;
     
     /**
      * Return true if the tracker is going to skip
@@ -73,21 +134,148 @@ public class InvocationTracker {
         this.skipTestClass = skipTestClass;
     }
 
-    public synchronized static InvocationTracker getInstance() {
+    public static InvocationTracker getInstance() {
+	if (sharedContext) {
+	    return shared;
+	}
 	return metadataCollector.get();
     }
     
     /*
      * only for tests
      */
-    public synchronized static void setInstance(InvocationTracker tracker) {
-	metadataCollector.set(tracker);
+    public static void setInstance(InvocationTracker tracker) {
+	if (sharedContext) {
+	    shared = tracker;
+	} else {
+	    metadataCollector.set(tracker);
+	}
+    }
+    
+    public static void cleanUp() {
+	if (sharedContext) {
+	    shared = new InvocationTracker();
+	} else {
+	    metadataCollector.remove();
+	}
+	ProbeArrays.reset();
+    }
+    
+    /**
+     * Switches between the per-thread context (the default, each test thread
+     * and the threads it creates using their own tracker) and the shared
+     * context (a single tracker for the whole JVM, to be used when running
+     * a test at a time); the shared context can also be enabled through the
+     * testedby.sharedContext system property.
+     * 
+     * @param enabled
+     */
+    public static void setSharedContext(boolean enabled) {
+	sharedContext = enabled;
+	cleanUp();
+    }
+    
+    public static boolean isSharedContext() {
+	return sharedContext;
+    }
+    
+    /**
+     * Turns the counting mode on or off for the trackers created afterwards;
+     * in counting mode the number of invocations of each method is tracked
+     * too (see getInvocationCount), at the cost of a counter update for each
+     * probe call. The counting mode can also be enabled through the
+     * testedby.counting system property.
+     * 
+     * @param enabled
+     */
+    public static void setCounting(boolean enabled) {
+	counting = enabled;
     }
     
-    public synchronized static void cleanUp() {
-	metadataCollector.remove();
+    public static boolean isCounting() {
+	return counting;
     }
 
+    public InvocationTracker() {
+	if (sharedContext) {
+	    sharedInvoked = new AtomicBitSet();
+	    sharedCalls = new LongAdder();
+	}
+	if (counting) {
+	    counters = new InvocationCounters();
+	}
+    }
+    
+    /**
+     * Wraps the provided task so that it runs with the tracker of the current
+     * thread, whatever the thread actually running it (e.g. a pooled one);
+     * this is what the code injected by the agent calls when submitting
+     * tasks to executors. Tasks that are already wrapped are returned as
+     * they are.
+     * 
+     * @param task
+     * @return The wrapped task
+     */
+    public static Runnable wrap(Runnable task) {
+	if (task == null || sharedContext || task instanceof TrackedRunnable) {
+	    return task;
+	}
+	return new TrackedRunnable(task, getInstance());
+    }
+    
+    /**
+     * Wraps the provided task so that it runs with the tracker of the current
+     * thread (see wrap(Runnable))
+     * 
+     * @param task
+     * @return The wrapped task
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+	if (task == null || sharedContext || task instanceof TrackedCallable) {
+	    return task;
+	}
+	return new TrackedCallable<T>(task, getInstance());
+    }
+    
+    /**
+     * Wraps the provided task (e.g. a CompletableFuture.supplyAsync one) so
+     * that it runs with the tracker of the current thread (see
+     * wrap(Runnable))
+     * 
+     * @param task
+     * @return The wrapped task
+     */
+    public static <T> Supplier<T> wrap(Supplier<T> task) {
+	if (task == null || sharedContext || task instanceof TrackedSupplier) {
+	    return task;
+	}
+	return new TrackedSupplier<T>(task, getInstance());
+    }
+    
+    /**
+     * Wraps the provided tasks so that they run with the tracker of the
+     * current thread (see wrap(Runnable))
+     * 
+     * @param tasks
+     * @return The wrapped tasks
+     */
+    public static <T> Collection<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+	if (tasks == null) {
+	    return null;
+	}
+	List<Callable<T>> result = new ArrayList<Callable<T>>(tasks.size());
+	for (Callable<T> task : tasks) {
+	    result.add(wrap(task));
+	}
+	return result;
+    }
+    
+    private static InvocationTracker swap(InvocationTracker tracker) {
+	InvocationTracker previous = metadataCollector.get();
+	metadataCollector.set(tracker);
+	return previous;
+    }
+    
     public String getTestClass() {
         return testClass;
     }
@@ -104,30 +292,305 @@ public class InvocationTracker {
         this.testMethod = testMethod;
     }
     
-    public synchronized void addInvokedMethod(String clazz, String method) {
-	if (!skipTestClass || !clazz.equalsIgnoreCase(testClass)) {
-	    if (invoked.keySet().contains(clazz)) {
-		Set<String> methods = invoked.get(clazz);
-		methods.add(method);
+    /**
+     * Tracks an invocation of the class-method couple registered in the
+     * MethodRegistry with the provided id; this is what the code injected by
+     * the agent calls.
+     * 
+     * @param methodId The method id
+     */
+    public void addInvokedMethod(int methodId) {
+	MappedCoverageBuffer coverage = MappedCoverageBuffer.getInstance();
+	// invocations outside of a test (e.g. in the default tracker) are not worth a slot
+	if (coverage != null && testClass != null) {
+	    coverage.hit(getCoverageSlot(coverage), methodId);
+	}
+	if (counters != null) {
+	    counters.increment(methodId);
+	}
+	if (sharedInvoked != null) {
+	    sharedCalls.increment();
+	    sharedInvoked.set(methodId);
+	    return;
+	}
+	Buffer buffer = threadBuffer.get();
+	if (buffer == null || buffer.tracker != this || buffer.released) {
+	    buffer = getBuffer();
+	}
+	buffer.add(methodId);
+	if (buffer.released) {
+	    // the buffer might have been drained before the add, record it again
+	    getBuffer().add(methodId);
+	}
+    }
+    
+    private Buffer getBuffer() {
+	Thread thread = Thread.currentThread();
+	Buffer buffer = buffers.get(thread);
+	if (buffer == null || buffer.released) {
+	    // only the current thread adds its own buffer
+	    buffer = new Buffer(this);
+	    buffers.put(thread, buffer);
+	}
+	threadBuffer.set(buffer);
+	return buffer;
+    }
+    
+    private int getCoverageSlot(MappedCoverageBuffer coverage) {
+	int slot = coverageSlot;
+	if (slot == NO_SLOT) {
+	    synchronized (this) {
+		slot = coverageSlot;
+		if (slot == NO_SLOT) {
+		    slot = coverage.beginTest(testClass + "#" + testMethod);
+		    coverageSlot = slot;
+		}
+	    }
+	}
+	return slot;
+    }
+    
+    public void addInvokedMethod(String clazz, String method) {
+	addInvokedMethod(MethodRegistry.getInstance().register(clazz, method));
+    }
+    
+    /**
+     * Hands off the tracker of the current thread (or the shared one),
+     * replacing it with a fresh tracker; this is meant to be called at test
+     * boundaries, so that the invocations of the test that has just been run
+     * can be read from the returned tracker (see getInvokedMethods()) without
+     * being copied, while the next test records into a new one.
+     * 
+     * @return The tracker of the test that has just been run
+     */
+    public static InvocationTracker handOff() {
+	InvocationTracker tracker = getInstance();
+	// the probe arrays are reset when cleaning up
+	tracker.release();
+	cleanUp();
+	return tracker;
+    }
+    
+    /**
+     * Begins tracking a test in its own context: a new tracker is created for
+     * the test and bound to the current thread, so that tests can run in
+     * parallel on different threads, each test recording its invocations in
+     * its own tracker.
+     * 
+     * Probe arrays are shared by the whole JVM, hence they're collected only
+     * for the tests that didn't overlap with any other test.
+     * 
+     * @param testId	The test id, unique among the running tests
+     * @return The tracker of the test
+     * @throws IllegalStateException	If the shared context mode is on or a
+     * 					test with the same id is running
+     */
+    public static InvocationTracker begin(String testId) {
+	if (sharedContext) {
+	    throw new IllegalStateException("Concurrent test contexts can't be used in shared context mode");
+	}
+	InvocationTracker tracker = new InvocationTracker();
+	synchronized (contexts) {
+	    if (contexts.containsKey(testId)) {
+		throw new IllegalStateException("Test " + testId + " is already running");
+	    }
+	    if (contexts.isEmpty()) {
+		ProbeArrays.reset();
 	    } else {
-		Set<String> s = new HashSet<String>();
-		s.add(method);
-		invoked.put(clazz, s);
+		markOverlapping(tracker);
+	    }
+	    contexts.put(testId, tracker);
+	}
+	metadataCollector.set(tracker);
+	return tracker;
+    }
+    
+    /**
+     * Ends tracking a test begun in its own context (see begin), unbinding
+     * its tracker from the current thread; the invocations of the test can
+     * then be read from the returned tracker.
+     * 
+     * @param testId	The test id
+     * @return The tracker of the test, or null if no such test is running
+     */
+    public static InvocationTracker end(String testId) {
+	InvocationTracker tracker;
+	synchronized (contexts) {
+	    tracker = contexts.remove(testId);
+	    if (tracker == null) {
+		return null;
 	    }
+	    tracker.release();
 	}
+	if (metadataCollector.get() == tracker) {
+	    metadataCollector.remove();
+	}
+	return tracker;
     }
     
-    public synchronized Map<String, Set<String>> getInvokedMethodMap() {
+    /**
+     * @param testId
+     * @return The tracker of the provided running test, or null if no such
+     *         test is running in its own context
+     */
+    public static InvocationTracker getContext(String testId) {
+	return contexts.get(testId);
+    }
+    
+    private static void markOverlapping(InvocationTracker tracker) {
+	// none of the running tests can be given the probe arrays hits
+	tracker.collectingProbeArrays = false;
+	for (InvocationTracker running : contexts.values()) {
+	    synchronized (running) {
+		running.collectingProbeArrays = false;
+	    }
+	}
+	if (!probeArraysWarningLogged && ProbeArrays.isInUse()) {
+	    probeArraysWarningLogged = true;
+	    LOG.warning("Probe arrays can't be collected for tests running in parallel");
+	}
+    }
+    
+    /**
+     * Returns the ids (see MethodRegistry) of the invoked methods; the
+     * returned set is owned by the tracker and is not to be modified.
+     * The collected invocations are reported to the TrackerStats.
+     * 
+     * @return The invoked method ids
+     */
+    public synchronized BitSet getInvokedMethods() {
+	long probeCalls = merge();
+	TrackerStats.getInstance().testTracked(testClass + "#" + testMethod, probeCalls, invoked.cardinality());
+	if (!skipTestClass) {
+	    return invoked;
+	}
+	MethodRegistry registry = MethodRegistry.getInstance();
+	BitSet result = null;
+	for (int id = invoked.nextSetBit(0); id >= 0; id = invoked.nextSetBit(id + 1)) {
+	    if (registry.getClassName(id).equalsIgnoreCase(testClass)) {
+		if (result == null) {
+		    result = (BitSet) invoked.clone();
+		}
+		result.clear(id);
+	    }
+	}
+	return result != null ? result : invoked;
+    }
+    
+    /**
+     * @return True if this tracker counts the invocations of each method
+     */
+    public boolean isCountingInvocations() {
+	return counters != null;
+    }
+    
+    /**
+     * Returns the number of invocations of the provided method, as tracked in
+     * counting mode; the invocations tracked through probe arrays are not
+     * counted.
+     * 
+     * @param methodId
+     * @return The number of invocations, or 0 if the tracker is not counting
+     */
+    public long getInvocationCount(int methodId) {
+	return counters != null ? counters.get(methodId) : 0;
+    }
+    
+    /**
+     * Returns the invoked methods (javassist long names) by class name;
+     * classes tracked as a whole (class granularity) have an empty set.
+     * The collected invocations are reported to the TrackerStats.
+     * 
+     * @return The invoked methods map
+     */
+    public Map<String, Set<String>> getInvokedMethodMap() {
+	return toMap(getInvokedMethods());
+    }
+    
+    /**
+     * @param ids	The method ids
+     * @return The methods with the provided ids (javassist long names) by
+     * 		class name
+     */
+    static Map<String, Set<String>> toMap(BitSet ids) {
+	MethodRegistry registry = MethodRegistry.getInstance();
 	Map<String, Set<String>> map = new HashMap<String, Set<String>>();
-	for (String s : invoked.keySet()) {
-	    Set<String> set = new HashSet<String>();
-	    for (String v : invoked.get(s)) {
-		set.add(v);
+	for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+	    String clazz = registry.getClassName(id);
+	    Set<String> set = map.get(clazz);
+	    if (set == null) {
+		set = new HashSet<String>();
+		map.put(clazz, set);
 	    }
-	    map.put(s, set);
+	    String method = registry.getMethodLongName(id);
+	    if (method != null) {
+		set.add(method);
+	    }
+	}
+	return map;
+    }
+    
+    /**
+     * @param ids	The method ids
+     * @param counts	The tracker that has counted the invocations
+     * @return The invocation counts of the methods with the provided ids, by
+     * 		javassist long name (class name for class granularity ids)
+     */
+    static Map<String, Long> toCountMap(BitSet ids, InvocationTracker counts) {
+	MethodRegistry registry = MethodRegistry.getInstance();
+	Map<String, Long> map = new HashMap<String, Long>();
+	for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+	    String method = registry.getMethodLongName(id);
+	    map.put(method != null ? method : registry.getClassName(id), counts.getInvocationCount(id));
 	}
 	return map;
     }
+    
+    /**
+     * Merges the invocations recorded so far, then releases the per-thread
+     * buffers, so that they're not kept by the tracker once the test is
+     * over; late invocations, if any, are recorded into new buffers. A
+     * thread (e.g. a pooled one) only keeps the last buffer it recorded
+     * into, until its next invocation.
+     * 
+     * Each buffer is removed from the map and flagged as released before
+     * being drained; a thread still writing to it checks the flag after
+     * each add and records the invocation again into a new buffer, so
+     * that nothing recorded during the release is lost.
+     */
+    private synchronized void release() {
+	for (Thread thread : buffers.keySet()) {
+	    Buffer buffer = buffers.remove(thread);
+	    if (buffer != null) {
+		buffer.released = true;
+		buffer.drainTo(invoked);
+		releasedCalls += buffer.calls;
+	    }
+	}
+	merge();
+	collectingProbeArrays = false;
+    }
+    
+    /**
+     * Merges the per-thread buffers and the probe arrays into the invoked set
+     * 
+     * @return The number of probe calls
+     */
+    private synchronized long merge() {
+	long probeCalls = releasedCalls;
+	if (sharedInvoked != null) {
+	    sharedInvoked.copyTo(invoked);
+	    probeCalls += sharedCalls.sum();
+	}
+	for (Buffer buffer : buffers.values()) {
+	    buffer.drainTo(invoked);
+	    probeCalls += buffer.calls;
+	}
+	if (collectingProbeArrays) {
+	    ProbeArrays.collect(invoked);
+	}
+	return probeCalls;
+    }
 
     /**
      * @return currentClassUnderTest
@@ -142,4 +605,120 @@ public class InvocationTracker {
     public void setCurrentClassUnderTest(String currentClassUnderTest) {
         this.currentClassUnderTest = currentClassUnderTest;
     }
+
+    private static class TrackedRunnable implements Runnable {
+
+	private final Runnable task;
+
+	private final InvocationTracker tracker;
+
+	TrackedRunnable(Runnable task, InvocationTracker tracker) {
+	    this.task = task;
+	    this.tracker = tracker;
+	}
+
+	public void run() {
+	    InvocationTracker previous = swap(tracker);
+	    try {
+		task.run();
+	    } finally {
+		swap(previous);
+	    }
+	}
+    }
+
+    private static class TrackedCallable<T> implements Callable<T> {
+
+	private final Callable<T> task;
+
+	private final InvocationTracker tracker;
+
+	TrackedCallable(Callable<T> task, InvocationTracker tracker) {
+	    this.task = task;
+	    this.tracker = tracker;
+	}
+
+	public T call() throws Exception {
+	    InvocationTracker previous = swap(tracker);
+	    try {
+		return task.call();
+	    } finally {
+		swap(previous);
+	    }
+	}
+    }
+
+    private static class TrackedSupplier<T> implements Supplier<T> {
+
+	private final Supplier<T> task;
+
+	private final InvocationTracker tracker;
+
+	TrackedSupplier(Supplier<T> task, InvocationTracker tracker) {
+	    this.task = task;
+	    this.tracker = tracker;
+	}
+
+	public T get() {
+	    InvocationTracker previous = swap(tracker);
+	    try {
+		return task.get();
+	    } finally {
+		swap(previous);
+	    }
+	}
+    }
+
+    /**
+     * The invocations recorded by a given thread for a given tracker; the
+     * buffer is written by its thread only and can be read by any thread.
+     */
+    private static class Buffer {
+
+	private final InvocationTracker tracker;
+
+	// set once the buffer has been drained for the last time
+	private volatile boolean released;
+
+	// the methods already recorded, only accessed by the owner thread
+	private final BitSet seen = new BitSet();
+
+	// the ids of the invoked methods, in order of first invocation; the
+	// array is always published before the size
+	private volatile int[] log = new int[32];
+	private volatile int size;
+
+	// the number of probe calls (not synchronized, as it's just for stats)
+	private long calls;
+
+	Buffer(InvocationTracker tracker) {
+	    this.tracker = tracker;
+	}
+
+	void add(int methodId) {
+	    calls++;
+	    if (!seen.get(methodId)) {
+		seen.set(methodId);
+		int n = size;
+		int[] current = log;
+		if (n == current.length) {
+		    int[] grown = new int[n * 2];
+		    System.arraycopy(current, 0, grown, 0, n);
+		    log = grown;
+		    current = grown;
+		}
+		current[n] = methodId;
+		size = n + 1;
+	    }
+	}
+
+	void drainTo(BitSet set) {
+	    // read the size first, the array being at least as recent
+	    int n = size;
+	    int[] current = log;
+	    for (int i = 0; i < n; i++) {
+		set.set(current[i]);
+	    }
+	}
+    }
 }
@@ -0,0 +1,320 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * A coverage buffer backed by a memory-mapped file, which the invocation
+ * tracker writes the probe hits to as they happen: as the file content is
+ * owned by the OS, the invocations recorded before a crash (or a kill on
+ * timeout) of the test JVM can still be recovered afterwards through
+ * read(File).
+ *
+ * The file has a fixed size header followed by a slot for each test; a slot
+ * holds the test name and one bit for each method id (see MethodRegistry).
+ * Bits are set through compare-and-set on the mapped memory, so any thread
+ * can record hits without locking. As method ids are JVM specific, the
+ * registered methods are appended to a side file (the buffer file name
+ * with the .methods suffix) as they're registered, once for each
+ * instrumented class.
+ *
+ * Header (big endian ints): magic, version, slots, methods (bits per slot),
+ * used slots.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class MappedCoverageBuffer {
+
+    public static final int DEFAULT_SLOTS = 1024;
+
+    public static final int DEFAULT_METHODS = 1 << 16;
+
+    static final int MAGIC = 0x54424342; // TBCB
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+
+    static final int NAME_SIZE = 512;
+
+    private static final int USED_SLOTS_OFFSET = 16;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static Logger LOG = Logger.getLogger(MappedCoverageBuffer.class.getName());
+
+    private static volatile MappedCoverageBuffer instance;
+
+    private final MappedByteBuffer buffer;
+
+    private final int slots;
+
+    private final int methods;
+
+    private final int slotSize;
+
+    private final Writer methodsWriter;
+
+    private int usedSlots;
+
+    private int writtenMethods;
+
+    private volatile boolean overflowLogged;
+
+    /**
+     * @return The coverage buffer the tracker is writing to, if any
+     */
+    public static MappedCoverageBuffer getInstance() {
+	return instance;
+    }
+
+    /**
+     * Sets the coverage buffer the tracker is to write to (null to stop
+     * writing to the current one)
+     *
+     * @param buffer
+     */
+    public static void setInstance(MappedCoverageBuffer buffer) {
+	instance = buffer;
+	if (buffer != null) {
+	    buffer.writeMethods();
+	}
+    }
+
+    /**
+     * Creates (or truncates) the provided file and maps it
+     *
+     * @param file
+     * @param slots		The max number of tests that can be recorded
+     * @param methods		The max number of method ids that can be recorded
+     * @throws IOException
+     */
+    public MappedCoverageBuffer(File file, int slots, int methods) throws IOException {
+	this.slots = slots;
+	this.methods = (methods + 63) & ~63;
+	this.slotSize = NAME_SIZE + this.methods / 8;
+	long size = HEADER_SIZE + (long) slots * slotSize;
+	if (size > Integer.MAX_VALUE) {
+	    throw new IOException("Coverage buffer too big: " + slots + " slots, " + methods + " methods");
+	}
+	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	try {
+	    raf.setLength(0);
+	    raf.setLength(size);
+	    buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+	} finally {
+	    // the mapping stays valid after the channel is closed
+	    raf.close();
+	}
+	buffer.putInt(0, MAGIC);
+	buffer.putInt(4, VERSION);
+	buffer.putInt(8, slots);
+	buffer.putInt(12, this.methods);
+	buffer.putInt(USED_SLOTS_OFFSET, 0);
+	methodsWriter = new OutputStreamWriter(new FileOutputStream(getMethodsFile(file)), "UTF-8");
+    }
+
+    /**
+     * Assigns a slot to a new test
+     *
+     * @param testName
+     * @return The slot, or -1 if there are no more slots available
+     */
+    public synchronized int beginTest(String testName) {
+	if (usedSlots == slots) {
+	    logOverflow("slots");
+	    return -1;
+	}
+	int slot = usedSlots++;
+	byte[] name;
+	try {
+	    name = String.valueOf(testName).getBytes("UTF-8");
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+	int length = Math.min(name.length, NAME_SIZE - 2);
+	int offset = getSlotOffset(slot);
+	buffer.putShort(offset, (short) length);
+	for (int i = 0; i < length; i++) {
+	    buffer.put(offset + 2 + i, name[i]);
+	}
+	// publish the slot only once its name has been written
+	buffer.putInt(USED_SLOTS_OFFSET, usedSlots);
+	return slot;
+    }
+
+    /**
+     * Records a hit of the provided method in the provided slot
+     *
+     * @param slot
+     * @param methodId
+     */
+    public void hit(int slot, int methodId) {
+	if (slot < 0) {
+	    return;
+	}
+	if (methodId >= methods) {
+	    logOverflow("method ids");
+	    return;
+	}
+	int index = getSlotOffset(slot) + NAME_SIZE + (methodId >>> 6) * 8;
+	long mask = 1L << (methodId & 63);
+	long word = (long) LONGS.getVolatile(buffer, index);
+	while ((word & mask) == 0) {
+	    if (LONGS.compareAndSet(buffer, index, word, word | mask)) {
+		return;
+	    }
+	    word = (long) LONGS.getVolatile(buffer, index);
+	}
+    }
+
+    /**
+     * Appends the methods registered since the last call to the methods file
+     */
+    void writeMethods() {
+	MethodRegistry registry = MethodRegistry.getInstance();
+	// the registry is not locked while writing, methods are only appended to it
+	synchronized (this) {
+	    int size = registry.size();
+	    if (writtenMethods == size) {
+		return;
+	    }
+	    try {
+		for (; writtenMethods < size; writtenMethods++) {
+		    String method = registry.getMethodLongName(writtenMethods);
+		    methodsWriter.write(writtenMethods + "\t" + registry.getClassName(writtenMethods) + "\t" + (method != null ? method : "") + "\n");
+		}
+		methodsWriter.flush();
+	    } catch (IOException e) {
+		LOG.warning("Could not write the registered methods: " + e.getMessage());
+	    }
+	}
+    }
+
+    /**
+     * Reads a coverage buffer file, possibly written by a JVM that crashed
+     *
+     * @param file
+     * @return The invoked methods map (see
+     *         InvocationTracker.getInvokedMethodMap()) of each recorded test
+     * @throws IOException
+     */
+    public static Map<String, Map<String, Set<String>>> read(File file) throws IOException {
+	List<String[]> registered = readMethods(getMethodsFile(file));
+	Map<String, Map<String, Set<String>>> result = new LinkedHashMap<String, Map<String, Set<String>>>();
+	RandomAccessFile raf = new RandomAccessFile(file, "r");
+	try {
+	    MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+	    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+		throw new IOException("Not a coverage buffer file: " + file);
+	    }
+	    int methods = buffer.getInt(12);
+	    int slotSize = NAME_SIZE + methods / 8;
+	    int used = buffer.getInt(USED_SLOTS_OFFSET);
+	    for (int slot = 0; slot < used; slot++) {
+		int offset = HEADER_SIZE + slot * slotSize;
+		byte[] name = new byte[buffer.getShort(offset)];
+		for (int i = 0; i < name.length; i++) {
+		    name[i] = buffer.get(offset + 2 + i);
+		}
+		Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+		for (int w = 0; w < methods / 64; w++) {
+		    long word = buffer.getLong(offset + NAME_SIZE + w * 8);
+		    while (word != 0) {
+			int id = w * 64 + Long.numberOfTrailingZeros(word);
+			word &= word - 1;
+			if (id < registered.size()) {
+			    String[] method = registered.get(id);
+			    Set<String> set = map.get(method[0]);
+			    if (set == null) {
+				set = new HashSet<String>();
+				map.put(method[0], set);
+			    }
+			    if (method[1].length() > 0) {
+				set.add(method[1]);
+			    }
+			}
+		    }
+		}
+		result.put(new String(name, "UTF-8"), map);
+	    }
+	} finally {
+	    raf.close();
+	}
+	return result;
+    }
+
+    private static List<String[]> readMethods(File file) throws IOException {
+	List<String[]> result = new ArrayList<String[]>();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+	try {
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		String[] tokens = line.split("\t", -1);
+		if (tokens.length == 3) {
+		    result.add(new String[] { tokens[1], tokens[2] });
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+	return result;
+    }
+
+    private int getSlotOffset(int slot) {
+	return HEADER_SIZE + slot * slotSize;
+    }
+
+    private void logOverflow(String what) {
+	if (!overflowLogged) {
+	    overflowLogged = true;
+	    LOG.warning("The coverage buffer has run out of " + what + ", some invocations won't be recorded");
+	}
+    }
+
+    private static File getMethodsFile(File file) {
+	return new File(file.getPath() + ".methods");
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+import it.javalinux.testedby.metadata.impl.Helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A JVM wide registry of the instrumented methods.
+ *
+ * Each class-method couple is given a dense int id when it's instrumented, so
+ * that the code injected by the agent only has to pass that id to the
+ * InvocationTracker; ids are resolved back to class and method names only
+ * when building metadata. Classes tracked as a whole (class granularity) are
+ * registered with a null method long name.
+ *
+ * The direct supertypes of the instrumented classes are registered too, as
+ * read from their bytecode, so that the metadata repository can record the
+ * type hierarchy without loading classes.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class MethodRegistry {
+
+    private static MethodRegistry instance = new MethodRegistry();
+
+    // id -> class name
+    private List<String> classNames = new ArrayList<String>();
+
+    // id -> javassist method long name
+    private List<String> methodNames = new ArrayList<String>();
+
+    // id -> method name and parameter types, parsed on first use when building metadata
+    private List<String> simpleNames = new ArrayList<String>();
+    private List<String[]> parameterTypes = new ArrayList<String[]>();
+
+    // className#methodLongName -> id
+    private Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    // class name -> names of the direct superclass and interfaces
+    private Map<String, String[]> supertypes = new HashMap<String, String[]>();
+
+    public static MethodRegistry getInstance() {
+	return instance;
+    }
+
+    /**
+     * Registers the provided class-method couple, returning the id assigned to
+     * it; registering the same couple twice returns the same id.
+     *
+     * @param className
+     *            The canonical name of the class
+     * @param methodLongName
+     *            The javassist long name of the method (null for the class
+     *            itself)
+     * @return The id of the method
+     */
+    public int register(String className, String methodLongName) {
+	int size;
+	int id;
+	synchronized (this) {
+	    size = classNames.size();
+	    id = add(className, methodLongName);
+	}
+	if (id == size) {
+	    writeMethods();
+	}
+	return id;
+    }
+
+    /**
+     * Registers the provided methods of a given class.
+     *
+     * @param className
+     *            The canonical name of the class
+     * @param methodLongNames
+     *            The javassist long names of the methods
+     * @return The ids of the methods
+     */
+    public int[] register(String className, String[] methodLongNames) {
+	int[] result = new int[methodLongNames.length];
+	synchronized (this) {
+	    for (int k = 0; k < result.length; k++) {
+		result[k] = add(className, methodLongNames[k]);
+	    }
+	}
+	// the new methods of the class are written at once, outside the registry lock
+	writeMethods();
+	return result;
+    }
+
+    private int add(String className, String methodLongName) {
+	String key = className + "#" + methodLongName;
+	Integer id = ids.get(key);
+	if (id == null) {
+	    id = classNames.size();
+	    classNames.add(className);
+	    methodNames.add(methodLongName);
+	    simpleNames.add(null);
+	    parameterTypes.add(null);
+	    ids.put(key, id);
+	}
+	return id;
+    }
+
+    private static void writeMethods() {
+	MappedCoverageBuffer coverage = MappedCoverageBuffer.getInstance();
+	if (coverage != null) {
+	    coverage.writeMethods();
+	}
+    }
+
+    /**
+     * @param id
+     * @return The canonical name of the class the method with the provided id
+     *         belongs to
+     */
+    public synchronized String getClassName(int id) {
+	return classNames.get(id);
+    }
+
+    /**
+     * @param id
+     * @return The javassist long name of the method with the provided id,
+     *         or null if the id refers to a class tracked as a whole
+     */
+    public synchronized String getMethodLongName(int id) {
+	return methodNames.get(id);
+    }
+
+    /**
+     * @param id
+     * @return The name of the method with the provided id, or null if the
+     *         id refers to a class tracked as a whole
+     */
+    public synchronized String getMethodName(int id) {
+	parse(id);
+	return simpleNames.get(id);
+    }
+
+    /**
+     * @param id
+     * @return The parameter types of the method with the provided id, or
+     *         null if the id refers to a class tracked as a whole
+     */
+    public synchronized String[] getMethodParameterTypes(int id) {
+	parse(id);
+	return parameterTypes.get(id);
+    }
+
+    private void parse(int id) {
+	String methodLongName = methodNames.get(id);
+	if (methodLongName != null && simpleNames.get(id) == null) {
+	    simpleNames.set(id, Helper.getMethodNameFromJavaAssistLongName(methodLongName));
+	    parameterTypes.set(id, Helper.getMethodParametersFromJavaAssistLongName(methodLongName));
+	}
+    }
+
+    /**
+     * Registers the direct supertypes of the provided class
+     *
+     * @param className
+     *            The canonical name of the class
+     * @param supertypeNames
+     *            The canonical names of the superclass and interfaces
+     */
+    public synchronized void registerType(String className, String[] supertypeNames) {
+	supertypes.put(className, supertypeNames);
+    }
+
+    /**
+     * Registers the direct supertypes of the provided classes; this is what
+     * the code added to self registering classes calls.
+     *
+     * @param types
+     *            For each class, its canonical name followed by the canonical
+     *            names of its superclass and interfaces and by null
+     */
+    public synchronized void registerTypes(String[] types) {
+	int start = 0;
+	for (int i = 0; i < types.length; i++) {
+	    if (types[i] == null) {
+		supertypes.put(types[start], Arrays.copyOfRange(types, start + 1, i));
+		start = i + 1;
+	    }
+	}
+    }
+
+    /**
+     * @param className
+     * @return The canonical names of the direct supertypes of the provided
+     *         class, or null if its type has not been registered
+     */
+    public synchronized String[] getSupertypes(String className) {
+	return supertypes.get(className);
+    }
+
+    /**
+     * @return The number of registered methods
+     */
+    public synchronized int size() {
+	return classNames.size();
+    }
+}
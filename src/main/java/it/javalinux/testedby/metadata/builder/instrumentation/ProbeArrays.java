@@ -0,0 +1,122 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Holds the per-class boolean probe arrays used when the agent runs with
+ * probes=array: each instrumented class gets a static boolean[] whose slots
+ * are set by the corresponding methods, so that tracking a method invocation
+ * costs a single array store.
+ *
+ * Please note the probe arrays are shared by all the threads of the JVM,
+ * hence this tracking mode is meant for test runs performed sequentially; the
+ * arrays are collected and reset by the InvocationTracker at test boundaries.
+ *
+ * The probes are plain array stores (once the array field of the class has
+ * been lazily initialized), with no memory barrier: collecting is
+ * best-effort for the stores performed by threads other than the collecting
+ * one, which are only guaranteed to be seen if those threads synchronized
+ * with the collecting thread (for instance when they have been joined, or
+ * when their tasks' futures have been read).
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class ProbeArrays {
+
+    // class probe id -> ids (see MethodRegistry) of the methods of the class
+    private static List<int[]> methodIds = new ArrayList<int[]>();
+
+    // class probe id -> probe array of the class
+    private static List<boolean[]> probes = new ArrayList<boolean[]>();
+
+    /**
+     * Registers a class whose methods have the provided ids (the method
+     * having methodIds[k] is going to set the k-th slot of the class probe
+     * array).
+     *
+     * @param ids
+     *            The ids of the methods of the class
+     * @return The class probe id to be used for getting the probe array
+     */
+    public static synchronized int register(int[] ids) {
+	methodIds.add(ids);
+	probes.add(new boolean[ids.length]);
+	return probes.size() - 1;
+    }
+
+    /**
+     * Returns the probe array of the class with the provided probe id; this
+     * is called by the code injected by the agent when first initializing the
+     * probe array field of an instrumented class.
+     *
+     * @param classProbeId
+     *            The class probe id
+     * @return The probe array
+     */
+    public static synchronized boolean[] getProbes(int classProbeId) {
+	return probes.get(classProbeId);
+    }
+
+    /**
+     * Sets the ids of the methods whose probe is set in the provided bit set,
+     * then resets the probes; see the class comment about the probes set by
+     * other threads.
+     *
+     * @param invoked
+     *            The bit set to be filled with the ids of the invoked methods
+     */
+    static synchronized void collect(BitSet invoked) {
+	for (int i = 0; i < probes.size(); i++) {
+	    boolean[] p = probes.get(i);
+	    int[] ids = methodIds.get(i);
+	    for (int k = 0; k < p.length; k++) {
+		if (p[k]) {
+		    invoked.set(ids[k]);
+		    p[k] = false;
+		}
+	    }
+	}
+    }
+
+    /**
+     * @return True if any class has been instrumented with a probe array
+     */
+    static synchronized boolean isInUse() {
+	return !probes.isEmpty();
+    }
+
+    /**
+     * Resets all the probes
+     */
+    static synchronized void reset() {
+	for (boolean[] p : probes) {
+	    for (int k = 0; k < p.length; k++) {
+		p[k] = false;
+	    }
+	}
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+/**
+ * The invocation tracking telemetry; the InvocationTracker reports each test
+ * when its invocations are collected.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class TrackerStats implements TrackerStatsMBean {
+
+    public static final String OBJECT_NAME = "it.javalinux.testedby:type=InvocationTracker";
+
+    private static TrackerStats instance = new TrackerStats();
+
+    private long tests;
+
+    private long probeCalls;
+
+    private long distinctMethods;
+
+    private String lastTest;
+
+    private long lastTestProbeCalls;
+
+    private int lastTestDistinctMethods;
+
+    private int maxDistinctMethods;
+
+    public static TrackerStats getInstance() {
+	return instance;
+    }
+
+    /**
+     * Records the collected invocations of a test
+     *
+     * @param test		The test (class#method)
+     * @param calls		The number of probe calls
+     * @param methods		The number of distinct invoked methods
+     */
+    synchronized void testTracked(String test, long calls, int methods) {
+	tests++;
+	probeCalls += calls;
+	distinctMethods += methods;
+	lastTest = test;
+	lastTestProbeCalls = calls;
+	lastTestDistinctMethods = methods;
+	maxDistinctMethods = Math.max(maxDistinctMethods, methods);
+    }
+
+    public synchronized long getTestsTracked() {
+	return tests;
+    }
+
+    public synchronized long getProbeCalls() {
+	return probeCalls;
+    }
+
+    public int getRegisteredMethods() {
+	return MethodRegistry.getInstance().size();
+    }
+
+    public synchronized String getLastTest() {
+	return lastTest;
+    }
+
+    public synchronized long getLastTestProbeCalls() {
+	return lastTestProbeCalls;
+    }
+
+    public synchronized int getLastTestDistinctMethods() {
+	return lastTestDistinctMethods;
+    }
+
+    public synchronized int getMaxDistinctMethods() {
+	return maxDistinctMethods;
+    }
+
+    public synchronized double getAverageDistinctMethods() {
+	return tests > 0 ? (double) distinctMethods / tests : 0;
+    }
+
+    public synchronized void reset() {
+	tests = 0;
+	probeCalls = 0;
+	distinctMethods = 0;
+	lastTest = null;
+	lastTestProbeCalls = 0;
+	lastTestDistinctMethods = 0;
+	maxDistinctMethods = 0;
+    }
+}
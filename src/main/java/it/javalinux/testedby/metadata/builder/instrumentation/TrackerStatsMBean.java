@@ -0,0 +1,79 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+/**
+ * The management interface exposing the invocation tracking telemetry
+ * (registered as it.javalinux.testedby:type=InvocationTracker)
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public interface TrackerStatsMBean {
+
+    /**
+     * @return The number of tests whose invocations have been collected
+     */
+    long getTestsTracked();
+
+    /**
+     * @return The overall number of probe calls in the tracked tests (the
+     *         probe arrays are not counted, as they're not calls)
+     */
+    long getProbeCalls();
+
+    /**
+     * @return The number of methods registered in the MethodRegistry
+     */
+    int getRegisteredMethods();
+
+    /**
+     * @return The last tracked test (class#method)
+     */
+    String getLastTest();
+
+    /**
+     * @return The number of probe calls in the last tracked test
+     */
+    long getLastTestProbeCalls();
+
+    /**
+     * @return The number of distinct methods invoked by the last tracked test
+     */
+    int getLastTestDistinctMethods();
+
+    /**
+     * @return The highest number of distinct methods invoked by a tracked test
+     */
+    int getMaxDistinctMethods();
+
+    /**
+     * @return The average number of distinct methods invoked by the tracked
+     *         tests
+     */
+    double getAverageDistinctMethods();
+
+    /**
+     * Resets the counters
+     */
+    void reset();
+}
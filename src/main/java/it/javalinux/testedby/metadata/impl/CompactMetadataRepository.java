@@ -0,0 +1,667 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.impl;
+
+import it.javalinux.testedby.metadata.ClassLinkMetadata;
+import it.javalinux.testedby.metadata.LinkMetadata;
+import it.javalinux.testedby.metadata.Mergeable;
+import it.javalinux.testedby.metadata.MethodLinkMetadata;
+import it.javalinux.testedby.metadata.MethodMetadata;
+import it.javalinux.testedby.metadata.StatusMetadata;
+import it.javalinux.testedby.metadata.TestsMetadata;
+import it.javalinux.testedby.metadata.impl.MetadataRepository.MethodInfo;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+
+/**
+ * An immutable, compact copy of a MetadataRepository, meant for loading and
+ * querying big repositories.
+ *
+ * Each class-method couple is a node, identified by its index in a sorted
+ * array of (class symbol, method symbol) keys. Both directions of the graph
+ * are stored in compressed sparse row form: the links of node n are the
+ * entries from offsets[n] to offsets[n + 1] of the targets array, while the
+ * link statuses are kept in arrays parallel to the targets one. Link
+ * metadata are created on demand by the queries, hence modifying them has
+ * no effect on the repository.
+ *
+ * The methods of a class are contiguous nodes, hence queries including
+ * methods are range scans; the type hierarchy recorded in the source
+ * repository is kept for the recursive queries.
+ *
+ * The creation date and the upper most class defining the metadata of the
+ * link statuses are not kept. Being immutable, the repository can't be
+ * merged with other metadata; the MetadataRepository it has been created
+ * from is to be used for that.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class CompactMetadataRepository implements TestsMetadata {
+
+    private static final long serialVersionUID = 2L;
+
+    private static final int VALID = 0x01;
+    private static final int JUST_CREATED = 0x02;
+    private static final int FROM_ANNOTATION = 0x04;
+    private static final int FROM_INSTRUMENTATION = 0x08;
+    private static final int PASSED = 0x10;
+    private static final int ON_ABSTRACT = 0x20;
+    private static final int CLASS_LINK = 0x40;
+
+    private final SymbolTable symbols = new SymbolTable();
+
+    // the class (high int) and method (low int) symbol ids of each node, sorted
+    private final long[] nodes;
+
+    // what a given class-method tests
+    private final Links testsLinks;
+
+    // what a given class-method is tested by
+    private final Links isTestedByLinks;
+
+    // the direct supertypes of the recorded types (class symbol ids)
+    private final Map<Integer, int[]> supertypes = new HashMap<Integer, int[]>();
+
+    /**
+     * Creates a compact copy of the provided repository; links being added
+     * to the repository in the meantime may or may not be copied.
+     *
+     * @param source
+     */
+    public CompactMetadataRepository(MetadataRepository source) {
+	Map<MethodInfo, LinkMetadata[]> tests = snapshot(source.getTestsLinks());
+	Map<MethodInfo, LinkMetadata[]> isTestedBy = snapshot(source.getIsTestedByLinks());
+	long[] keys = new long[64];
+	int count = 0;
+	for (Map<MethodInfo, LinkMetadata[]> map : Arrays.asList(tests, isTestedBy)) {
+	    for (Entry<MethodInfo, LinkMetadata[]> entry : map.entrySet()) {
+		if (count + entry.getValue().length + 1 > keys.length) {
+		    keys = Arrays.copyOf(keys, Math.max(keys.length * 2, count + entry.getValue().length + 1));
+		}
+		keys[count++] = internKey(source, entry.getKey());
+		for (LinkMetadata link : entry.getValue()) {
+		    keys[count++] = internKey(link);
+		}
+	    }
+	}
+	Arrays.sort(keys, 0, count);
+	int distinct = 0;
+	for (int i = 0; i < count; i++) {
+	    if (distinct == 0 || keys[i] != keys[distinct - 1]) {
+		keys[distinct++] = keys[i];
+	    }
+	}
+	this.nodes = Arrays.copyOf(keys, distinct);
+	this.testsLinks = createLinks(source, tests);
+	this.isTestedByLinks = createLinks(source, isTestedBy);
+	for (Entry<String, String[]> entry : source.getTypes().entrySet()) {
+	    int[] ids = new int[entry.getValue().length];
+	    for (int i = 0; i < ids.length; i++) {
+		ids[i] = symbols.internString(entry.getValue()[i]);
+	    }
+	    supertypes.put(symbols.internString(entry.getKey()), ids);
+	}
+    }
+
+    // the source links can't change while they're being copied
+    private static Map<MethodInfo, LinkMetadata[]> snapshot(Map<MethodInfo, Set<LinkMetadata>> map) {
+	Map<MethodInfo, LinkMetadata[]> result = new LinkedHashMap<MethodInfo, LinkMetadata[]>();
+	for (Entry<MethodInfo, Set<LinkMetadata>> entry : map.entrySet()) {
+	    result.put(entry.getKey(), entry.getValue().toArray(new LinkMetadata[0]));
+	}
+	return result;
+    }
+
+    private Links createLinks(MetadataRepository source, Map<MethodInfo, LinkMetadata[]> map) {
+	int[] offsets = new int[nodes.length + 1];
+	int count = 0;
+	for (Entry<MethodInfo, LinkMetadata[]> entry : map.entrySet()) {
+	    offsets[getNode(internKey(source, entry.getKey())) + 1] = entry.getValue().length;
+	    count += entry.getValue().length;
+	}
+	for (int n = 0; n < nodes.length; n++) {
+	    offsets[n + 1] += offsets[n];
+	}
+	Links links = new Links(offsets, count);
+	int[] next = Arrays.copyOf(offsets, nodes.length);
+	for (Entry<MethodInfo, LinkMetadata[]> entry : map.entrySet()) {
+	    int n = getNode(internKey(source, entry.getKey()));
+	    for (LinkMetadata link : entry.getValue()) {
+		links.set(next[n]++, getNode(internKey(link)), link);
+	    }
+	}
+	return links;
+    }
+
+    private long internKey(MetadataRepository source, MethodInfo info) {
+	MethodMetadata method = source.getMethodMetadata(info);
+	return getKey(symbols.internString(source.getClassName(info)), symbols.internMethod(method.getName(), method.getParameterTypes()));
+    }
+
+    private long internKey(LinkMetadata link) {
+	if (link instanceof MethodLinkMetadata) {
+	    MethodLinkMetadata methodLink = (MethodLinkMetadata) link;
+	    MethodMetadata method = methodLink.getMethod();
+	    return getKey(symbols.internString(methodLink.getClazz()), symbols.internMethod(method.getName(), method.getParameterTypes()));
+	}
+	return getKey(symbols.internString(((ClassLinkMetadata) link).getClazz()), SymbolTable.NO_METHOD);
+    }
+
+    private static long getKey(int classRef, int methodRef) {
+	return ((long) classRef << 32) | (methodRef & 0xFFFFFFFFL);
+    }
+
+    private int getNode(long key) {
+	return Arrays.binarySearch(nodes, key);
+    }
+
+    /**
+     * @param className
+     * @param methodName
+     *            The method name, null for the class only
+     * @param parameterTypes
+     * @return The node of the provided class-method couple, or -1 if there's
+     *         no such node
+     */
+    private int findNode(String className, String methodName, String[] parameterTypes) {
+	int classRef = symbols.lookupString(className);
+	int methodRef = symbols.lookupMethod(methodName, parameterTypes);
+	if (classRef == SymbolTable.UNKNOWN || methodRef == SymbolTable.UNKNOWN) {
+	    return -1;
+	}
+	int node = getNode(getKey(classRef, methodRef));
+	return node >= 0 ? node : -1;
+    }
+
+    private int findNode(Class<?> clazz, Method method) {
+	return findNode(clazz.getCanonicalName(), method.getName(), Helper.getParameterTypesAsStringArray(method));
+    }
+
+    private int findNode(String className, MethodMetadata methodMetadata) {
+	return findNode(className, methodMetadata.getName(), methodMetadata.getParameterTypes());
+    }
+
+    /**
+     * @return The number of class-method couples in the repository
+     */
+    public int getNodeCount() {
+	return nodes.length;
+    }
+
+    /**
+     * @return The number of links in the repository, in each direction
+     */
+    public int getLinkCount() {
+	return testsLinks.targets.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getClassesTestedBy(java.lang.Class,
+     *      java.lang.reflect.Method)
+     */
+    public List<ClassLinkMetadata> getClassesTestedBy(Class<?> clazz, Method method) {
+	return MetadataRepository.getClassLinks(getLinks(testsLinks, findNode(clazz, method), new HashSet<LinkMetadata>()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getClassesTestedBy(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata)
+     */
+    public List<ClassLinkMetadata> getClassesTestedBy(String className, MethodMetadata methodMetadata) {
+	return MetadataRepository.getClassLinks(getLinks(testsLinks, findNode(className, methodMetadata), new HashSet<LinkMetadata>()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getClassesTestedBy(java.lang.Class,
+     *      boolean)
+     */
+    public List<ClassLinkMetadata> getClassesTestedBy(Class<?> clazz, boolean includeMethods) {
+	return MetadataRepository.getClassLinks(getLinks(testsLinks, clazz.getCanonicalName(), clazz, includeMethods, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getClassesTestedBy(java.lang.String,
+     *      boolean)
+     */
+    public List<ClassLinkMetadata> getClassesTestedBy(String className, boolean includeMethods) {
+	return MetadataRepository.getClassLinks(getLinks(testsLinks, className, null, includeMethods, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getMethodsTestedBy(java.lang.Class,
+     *      java.lang.reflect.Method)
+     */
+    public List<MethodLinkMetadata> getMethodsTestedBy(Class<?> clazz, Method method) {
+	return MetadataRepository.getMethodLinks(getLinks(testsLinks, findNode(clazz, method), new HashSet<LinkMetadata>()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getMethodsTestedBy(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata)
+     */
+    public List<MethodLinkMetadata> getMethodsTestedBy(String className, MethodMetadata methodMetadata) {
+	return MetadataRepository.getMethodLinks(getLinks(testsLinks, findNode(className, methodMetadata), new HashSet<LinkMetadata>()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getMethodsTestedBy(java.lang.Class,
+     *      boolean)
+     */
+    public List<MethodLinkMetadata> getMethodsTestedBy(Class<?> clazz, boolean includeMethods) {
+	return MetadataRepository.getMethodLinks(getLinks(testsLinks, clazz.getCanonicalName(), clazz, includeMethods, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getMethodsTestedBy(java.lang.String,
+     *      boolean)
+     */
+    public List<MethodLinkMetadata> getMethodsTestedBy(String className, boolean includeMethods) {
+	return MetadataRepository.getMethodLinks(getLinks(testsLinks, className, null, includeMethods, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestClassesFor(java.lang.Class,
+     *      java.lang.reflect.Method)
+     */
+    public List<ClassLinkMetadata> getTestClassesFor(Class<?> clazz, Method method) {
+	return MetadataRepository.getClassLinks(getLinks(isTestedByLinks, findNode(clazz, method), new HashSet<LinkMetadata>()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestClassesFor(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata)
+     */
+    public List<ClassLinkMetadata> getTestClassesFor(String className, MethodMetadata methodMetadata) {
+	return MetadataRepository.getClassLinks(getLinks(isTestedByLinks, findNode(className, methodMetadata), new HashSet<LinkMetadata>()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestClassesFor(java.lang.Class,
+     *      boolean)
+     */
+    public List<ClassLinkMetadata> getTestClassesFor(Class<?> clazz, boolean includeMethods) {
+	return MetadataRepository.getClassLinks(getLinks(isTestedByLinks, clazz.getCanonicalName(), clazz, includeMethods, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestClassesFor(java.lang.String,
+     *      boolean)
+     */
+    public List<ClassLinkMetadata> getTestClassesFor(String className, boolean includeMethods) {
+	return MetadataRepository.getClassLinks(getLinks(isTestedByLinks, className, null, includeMethods, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsFor(java.lang.Class,
+     *      java.lang.reflect.Method)
+     */
+    public List<MethodLinkMetadata> getTestMethodsFor(Class<?> clazz, Method method) {
+	return MetadataRepository.getMethodLinks(getLinks(isTestedByLinks, findNode(clazz, method), new HashSet<LinkMetadata>()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsFor(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata)
+     */
+    public List<MethodLinkMetadata> getTestMethodsFor(String className, MethodMetadata methodMetadata) {
+	return MetadataRepository.getMethodLinks(getLinks(isTestedByLinks, findNode(className, methodMetadata), new HashSet<LinkMetadata>()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsFor(java.lang.Class,
+     *      boolean)
+     */
+    public List<MethodLinkMetadata> getTestMethodsFor(Class<?> clazz, boolean includeMethods) {
+	return MetadataRepository.getMethodLinks(getLinks(isTestedByLinks, clazz.getCanonicalName(), clazz, includeMethods, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsFor(java.lang.String,
+     *      boolean)
+     */
+    public List<MethodLinkMetadata> getTestMethodsFor(String className, boolean includeMethods) {
+	return MetadataRepository.getMethodLinks(getLinks(isTestedByLinks, className, null, includeMethods, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsForRecursive(java.lang.Class,
+     *      boolean)
+     */
+    public List<MethodLinkMetadata> getTestMethodsForRecursive(Class<?> clazz, boolean includeMethods) {
+	return MetadataRepository.getMethodLinks(getLinks(isTestedByLinks, clazz.getCanonicalName(), clazz, includeMethods, true));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsForRecursive(java.lang.String,
+     *      boolean)
+     */
+    public List<MethodLinkMetadata> getTestMethodsForRecursive(String className, boolean includeMethods) {
+	return MetadataRepository.getMethodLinks(getLinks(isTestedByLinks, className, null, includeMethods, true));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getHottestMethodsTestedBy(java.lang.Class,
+     *      java.lang.reflect.Method, int)
+     */
+    public List<MethodLinkMetadata> getHottestMethodsTestedBy(Class<?> clazz, Method method, int max) {
+	return MetadataRepository.getMostInvoked(getMethodsTestedBy(clazz, method), max);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getHottestMethodsTestedBy(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata, int)
+     */
+    public List<MethodLinkMetadata> getHottestMethodsTestedBy(String className, MethodMetadata methodMetadata, int max) {
+	return MetadataRepository.getMostInvoked(getMethodsTestedBy(className, methodMetadata), max);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsHammering(java.lang.Class,
+     *      java.lang.reflect.Method, int)
+     */
+    public List<MethodLinkMetadata> getTestMethodsHammering(Class<?> clazz, Method method, int max) {
+	return MetadataRepository.getMostInvoked(getTestMethodsFor(clazz, method), max);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsHammering(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata, int)
+     */
+    public List<MethodLinkMetadata> getTestMethodsHammering(String className, MethodMetadata methodMetadata, int max) {
+	return MetadataRepository.getMostInvoked(getTestMethodsFor(className, methodMetadata), max);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getAllTestedClasses()
+     */
+    public List<ClassLinkMetadata> getAllTestedClasses() {
+	return MetadataRepository.getClassLinks(getAllLinks(testsLinks));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getAllTestedMethods()
+     */
+    public List<MethodLinkMetadata> getAllTestedMethods() {
+	return MetadataRepository.getMethodLinks(getAllLinks(testsLinks));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getAllTestClasses()
+     */
+    public List<ClassLinkMetadata> getAllTestClasses() {
+	return MetadataRepository.getClassLinks(getAllLinks(isTestedByLinks));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getAllTestMethods()
+     */
+    public List<MethodLinkMetadata> getAllTestMethods() {
+	return MetadataRepository.getMethodLinks(getAllLinks(isTestedByLinks));
+    }
+
+    /**
+     * The repository is immutable, hence this always returns false
+     *
+     * @see it.javalinux.testedby.metadata.Mergeable#merge(it.javalinux.testedby.metadata.Mergeable)
+     */
+    public boolean merge(Mergeable right) {
+	return false;
+    }
+
+    /**
+     * @param links
+     * @param className
+     * @param clazz
+     *            The class, if loaded; reflection is used to get its
+     *            supertypes if its type has not been recorded
+     * @param includeMethods
+     *            True to collect the links of the class methods too
+     * @param recursive
+     *            True to collect the links of the class supertypes too
+     * @return The collected links
+     */
+    private Set<LinkMetadata> getLinks(Links links, String className, Class<?> clazz, boolean includeMethods, boolean recursive) {
+	Set<LinkMetadata> result = new HashSet<LinkMetadata>();
+	if (recursive) {
+	    getLinks(links, className, clazz, includeMethods, result, new HashSet<String>());
+	} else {
+	    getLinks(links, symbols.lookupString(className), clazz, includeMethods, result);
+	}
+	return result;
+    }
+
+    // the public methods of the supertypes are not recorded, see MetadataRepository
+    private void getLinks(Links links, String className, Class<?> clazz, boolean includeMethods, Set<LinkMetadata> result, Set<String> visited) {
+	if (!visited.add(className)) {
+	    return;
+	}
+	int classRef = symbols.lookupString(className);
+	getLinks(links, classRef, clazz, includeMethods, result);
+	int[] recorded = classRef != SymbolTable.UNKNOWN ? supertypes.get(classRef) : null;
+	if (recorded != null && (clazz == null || !includeMethods)) {
+	    for (int supertype : recorded) {
+		getLinks(links, symbols.getString(supertype), null, includeMethods, result, visited);
+	    }
+	} else if (clazz != null) {
+	    for (Class<?> supertype : MetadataRepository.getSupertypes(clazz)) {
+		getLinks(links, supertype.getCanonicalName(), supertype, includeMethods, result, visited);
+	    }
+	}
+    }
+
+    private void getLinks(Links links, int classRef, Class<?> clazz, boolean includeMethods, Set<LinkMetadata> result) {
+	if (classRef == SymbolTable.UNKNOWN) {
+	    return;
+	}
+	if (!includeMethods) {
+	    getLinks(links, getNode(getKey(classRef, SymbolTable.NO_METHOD)), result);
+	    return;
+	}
+	if (clazz != null) {
+	    getLinks(links, getNode(getKey(classRef, SymbolTable.NO_METHOD)), result);
+	    for (Method m : clazz.getMethods()) {
+		getLinks(links, findNode(clazz, m), result);
+	    }
+	    return;
+	}
+	// no class to reflect on, the class node follows the method ones of the same class
+	int node = getNode(getKey(classRef, 0));
+	for (node = node >= 0 ? node : -node - 1; node < nodes.length && (int) (nodes[node] >>> 32) == classRef; node++) {
+	    getLinks(links, node, result);
+	}
+    }
+
+    private Set<LinkMetadata> getLinks(Links links, int node, Set<LinkMetadata> result) {
+	if (node >= 0) {
+	    for (int i = links.offsets[node]; i < links.offsets[node + 1]; i++) {
+		result.add(getLink(links, i));
+	    }
+	}
+	return result;
+    }
+
+    private Set<LinkMetadata> getAllLinks(Links links) {
+	Set<LinkMetadata> result = new HashSet<LinkMetadata>(nodes.length);
+	for (int i = 0; i < links.targets.length; i++) {
+	    result.add(getLink(links, i));
+	}
+	return result;
+    }
+
+    private LinkMetadata getLink(Links links, int i) {
+	long key = nodes[links.targets[i]];
+	String className = symbols.getString((int) (key >>> 32));
+	StatusMetadata status = links.getStatus(i);
+	if ((links.flags[i] & CLASS_LINK) != 0) {
+	    return new ClassLinkMetadata(status, className);
+	}
+	int methodRef = (int) key;
+	String methodName = symbols.getMethodName(methodRef);
+	if (methodName == null) {
+	    return new MethodLinkMetadata(status, className, new ImmutableMethodMetadata());
+	}
+	String[] parameterTypes = symbols.getMethodParameterTypes(methodRef).clone();
+	return new MethodLinkMetadata(status, className, new ImmutableMethodMetadata(className, methodName, parameterTypes));
+    }
+
+    /**
+     * The links of one direction of the graph; the measures arrays are
+     * allocated only if at least a link status has been measured.
+     */
+    private static class Links implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int[] offsets;
+
+	private final int[] targets;
+
+	private final byte[] flags;
+
+	private long[] invocationCounts;
+
+	private long[] wallTimes;
+
+	private long[] cpuTimes;
+
+	private long[] allocatedBytes;
+
+	Links(int[] offsets, int count) {
+	    this.offsets = offsets;
+	    this.targets = new int[count];
+	    this.flags = new byte[count];
+	}
+
+	void set(int i, int target, LinkMetadata link) {
+	    targets[i] = target;
+	    StatusMetadata status = link.getStatus();
+	    int f = link instanceof ClassLinkMetadata ? CLASS_LINK : 0;
+	    if (status != null) {
+		f |= status.isValid() ? VALID : 0;
+		f |= status.isJustCreated() ? JUST_CREATED : 0;
+		f |= status.isFromAnnotation() ? FROM_ANNOTATION : 0;
+		f |= status.isFromInstrumentation() ? FROM_INSTRUMENTATION : 0;
+		f |= status.isPassedOnLastRun() ? PASSED : 0;
+		f |= status.isOnAbstract() ? ON_ABSTRACT : 0;
+		if (status.getInvocationCount() != 0) {
+		    if (invocationCounts == null) {
+			invocationCounts = new long[targets.length];
+		    }
+		    invocationCounts[i] = status.getInvocationCount();
+		}
+		if (status.isMeasured()) {
+		    if (wallTimes == null) {
+			wallTimes = newMeasures(targets.length);
+			cpuTimes = newMeasures(targets.length);
+			allocatedBytes = newMeasures(targets.length);
+		    }
+		    wallTimes[i] = status.getWallTimeNanos();
+		    cpuTimes[i] = status.getCpuTimeNanos();
+		    allocatedBytes[i] = status.getAllocatedBytes();
+		}
+	    }
+	    flags[i] = (byte) f;
+	}
+
+	StatusMetadata getStatus(int i) {
+	    int f = flags[i];
+	    StatusMetadata status = new StatusMetadata((f & VALID) != 0, (f & JUST_CREATED) != 0, (f & FROM_ANNOTATION) != 0, (f & FROM_INSTRUMENTATION) != 0);
+	    status.setPassedOnLastRun((f & PASSED) != 0);
+	    status.setOnAbstract((f & ON_ABSTRACT) != 0);
+	    if (invocationCounts != null) {
+		status.setInvocationCount(invocationCounts[i]);
+	    }
+	    if (wallTimes != null) {
+		status.setWallTimeNanos(wallTimes[i]).setCpuTimeNanos(cpuTimes[i]).setAllocatedBytes(allocatedBytes[i]);
+	    }
+	    return status;
+	}
+
+	private static long[] newMeasures(int size) {
+	    long[] measures = new long[size];
+	    Arrays.fill(measures, -1);
+	    return measures;
+	}
+    }
+}
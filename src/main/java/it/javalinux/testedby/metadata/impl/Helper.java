@@ -33,7 +33,7 @@ import java.util.StringTokenizer;
  */
 public class Helper {
     
-    private static String[] jvmPackages = new String[]{"sun.", "java.", "javax." };
+    private static String[] jvmPackages = new String[]{"sun.", "java.", "javax.", "jdk." };
     private static String[] restrictedPackages = new String[] { "it.javalinux.testedby.instrumentation.",
 							       "it.javalinux.testedby.metadata.",
 							       "it.javalinux.testedby.builder.",
@@ -63,7 +63,7 @@ public class Helper {
     
     public static String getCanonicalNameFromJavaAssistName(String className)
     {
-	return className != null ? className.replaceAll("/", ".") : null;
+	return className != null ? className.replace('/', '.') : null;
     }
     
     public static String getMethodNameFromJavaAssistLongName(String methodLongName)
@@ -105,7 +105,7 @@ public class Helper {
 	if (className == null) {
 	    return false;
 	}
-	String modified = className.replaceFirst("/", ".");
+	String modified = className.replace('/', '.');
 	for (String s : jvmPackages)
 	{
 	    if (modified.startsWith(s)) {
@@ -115,6 +115,20 @@ public class Helper {
 	return false;
     }
     
+    /**
+     * @return The prefixes of the JVM packages, using '.' as separator
+     */
+    public static String[] getJVMPackages() {
+	return jvmPackages.clone();
+    }
+    
+    /**
+     * @return The prefixes of the packages never to be instrumented, using '.' as separator
+     */
+    public static String[] getRestrictedPackages() {
+	return restrictedPackages.clone();
+    }
+    
     public static boolean isInRestrictedPackage(Class<?> clazz) {
 	return (clazz != null && isInRestrictedPackage(clazz.getName()));
     }
@@ -123,7 +137,7 @@ public class Helper {
 	if (className == null) {
 	    return false;
 	}
-	String modified = className.replaceAll("/", ".");
+	String modified = className.replace('/', '.');
 	for (String s : restrictedPackages)
 	{
 	    if (modified.startsWith(s)) {
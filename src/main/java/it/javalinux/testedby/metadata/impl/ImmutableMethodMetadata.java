@@ -120,6 +120,9 @@ public class ImmutableMethodMetadata implements MethodMetadata {
 
     @Override
     public boolean equals(Object o) {
+	if (o == this) {
+	    return true;
+	}
 	if (o == null || !(o instanceof MethodMetadata)) {
 	    return false;
 	}
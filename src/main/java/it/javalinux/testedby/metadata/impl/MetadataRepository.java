@@ -32,6 +32,7 @@ import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -39,23 +40,53 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A repository containing the whole tests<->classesUnderTests relationships.
  * 
+ * Class names, method names and parameter types are interned in a symbol
+ * table, hence the repository is keyed by pairs of int ids and the links
+ * share the same String instances (and method metadata) for the same
+ * symbols; this keeps the heap usage and the serialized size low when the
+ * same classes are linked by many tests.
+ * 
+ * The repository is thread safe: links can be added and repositories merged
+ * into this one from multiple threads, while queries see the links added
+ * so far (queries return copies of the repository content).
+ * 
+ * The repository also records the type hierarchy of the linked classes
+ * (see addType) and the linked methods of each class, so that recursive
+ * queries and queries by class name are index lookups; reflection is used
+ * for loaded classes whose type has not been recorded, as well as for the
+ * public methods of the loaded classes in queries including methods. As
+ * method visibility is not recorded, queries by class name including
+ * methods return the links of every linked method of the class.
+ * 
  * @author alessio.soldano@javalinux.it
  * @since 27-Aug-2009
  * 
  */
 public class MetadataRepository implements TestsMetadata {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 3L;
+
+    private SymbolTable symbols = new SymbolTable();
+
+    // the canonical method metadata of each class-method
+    private ConcurrentHashMap<MethodInfo, MethodMetadata> methods = new ConcurrentHashMap<MethodInfo, MethodMetadata>();
 
     // what a given class-method tests
-    private Map<MethodInfo, Set<LinkMetadata>> testsLinks = new HashMap<MethodInfo, Set<LinkMetadata>>();
+    private ConcurrentHashMap<MethodInfo, Set<LinkMetadata>> testsLinks = new ConcurrentHashMap<MethodInfo, Set<LinkMetadata>>();
 
     // what a given class-method is tested by
-    private Map<MethodInfo, Set<LinkMetadata>> isTestedByLinks = new HashMap<MethodInfo, Set<LinkMetadata>>(); // map
+    private ConcurrentHashMap<MethodInfo, Set<LinkMetadata>> isTestedByLinks = new ConcurrentHashMap<MethodInfo, Set<LinkMetadata>>(); // map
+
+    // the direct supertypes of the recorded types (class name ids)
+    private ConcurrentHashMap<Integer, int[]> supertypes = new ConcurrentHashMap<Integer, int[]>();
+
+    // the class-method couples of each class
+    private ConcurrentHashMap<Integer, Set<MethodInfo>> members = new ConcurrentHashMap<Integer, Set<MethodInfo>>();
 
     /**
      * Adds a connection from a test method/class to a tested method/class
@@ -77,31 +108,98 @@ public class MetadataRepository implements TestsMetadata {
      */
     public void addConnection(String testClass, String testMethod, String[] testMethodParameters, String testedClass, String testedMethod, String[] testedMethodParameters, StatusMetadata status) {
 	// TODO!! Clone status
-	MethodMetadata invokedMethodMetadata = new ImmutableMethodMetadata(testedClass, testedMethod, testedMethodParameters);
-	MethodInfo invoked = new MethodInfo(testedClass, invokedMethodMetadata);
-	MethodMetadata testMethodMetadata = new ImmutableMethodMetadata(testClass, testMethod, testMethodParameters);
-	MethodInfo test = new MethodInfo(testClass, testMethodMetadata);
+	MethodInfo invoked = intern(testedClass, testedMethod, testedMethodParameters);
+	MethodInfo test = intern(testClass, testMethod, testMethodParameters);
 
 	// create links
-	LinkMetadata invokedLink = (testedMethod == null || testedMethod.trim() == "") ? new ClassLinkMetadata(status, testedClass) : new MethodLinkMetadata(status, testedClass, invokedMethodMetadata);
-	LinkMetadata testLink = (testMethod == null || testMethod.trim() == "") ? new ClassLinkMetadata(status, testClass) : new MethodLinkMetadata(status, testClass, testMethodMetadata);
+	LinkMetadata invokedLink = (testedMethod == null || testedMethod.trim() == "") ? new ClassLinkMetadata(status, getClassName(invoked)) : new MethodLinkMetadata(status, getClassName(invoked), methods.get(invoked));
+	LinkMetadata testLink = (testMethod == null || testMethod.trim() == "") ? new ClassLinkMetadata(status, getClassName(test)) : new MethodLinkMetadata(status, getClassName(test), methods.get(test));
 
 	// add to testsLink
-	if (testsLinks.containsKey(test)) {
-	    testsLinks.get(test).add(invokedLink);
-	} else {
-	    Set<LinkMetadata> set = new HashSet<LinkMetadata>();
-	    set.add(invokedLink);
-	    testsLinks.put(test, set);
-	}
+	getOrCreateLinks(testsLinks, test).add(invokedLink);
 	// add to the isTestedByLinks
-	if (isTestedByLinks.containsKey(invoked)) {
-	    isTestedByLinks.get(invoked).add(testLink);
-	} else {
-	    Set<LinkMetadata> set = new HashSet<LinkMetadata>();
-	    set.add(testLink);
-	    isTestedByLinks.put(invoked, set);
+	getOrCreateLinks(isTestedByLinks, invoked).add(testLink);
+    }
+
+    /**
+     * Records the direct supertypes of a class, to be used by the queries on
+     * supertypes in place of reflection
+     * 
+     * @param className
+     *            The class
+     * @param supertypeNames
+     *            The superclass and interfaces of the class; JVM types are
+     *            not to be provided
+     */
+    public void addType(String className, String[] supertypeNames) {
+	int[] ids = new int[supertypeNames.length];
+	for (int i = 0; i < ids.length; i++) {
+	    ids[i] = symbols.internString(supertypeNames[i]);
 	}
+	supertypes.put(symbols.internString(className), ids);
+    }
+
+    /**
+     * Records the type hierarchy of the provided class, up to the JVM types
+     * 
+     * @param clazz
+     */
+    public void addType(Class<?> clazz) {
+	if (clazz == null || Helper.isInJVMPackage(clazz) || hasType(clazz.getCanonicalName())) {
+	    return;
+	}
+	List<Class<?>> types = getSupertypes(clazz);
+	String[] names = new String[types.size()];
+	for (int i = 0; i < names.length; i++) {
+	    names[i] = types.get(i).getCanonicalName();
+	}
+	addType(clazz.getCanonicalName(), names);
+	for (Class<?> type : types) {
+	    addType(type);
+	}
+    }
+
+    /**
+     * @param className
+     * @return True if the type of the provided class has been recorded
+     */
+    public boolean hasType(String className) {
+	int classRef = symbols.lookupString(className);
+	return classRef != SymbolTable.UNKNOWN && supertypes.containsKey(classRef);
+    }
+
+    static List<Class<?>> getSupertypes(Class<?> clazz) {
+	List<Class<?>> result = new LinkedList<Class<?>>();
+	for (Class<?> i : clazz.getInterfaces()) {
+	    if (!Helper.isInJVMPackage(i)) {
+		result.add(i);
+	    }
+	}
+	Class<?> superClass = clazz.getSuperclass();
+	if (superClass != null && !Helper.isInJVMPackage(superClass)) {
+	    result.add(superClass);
+	}
+	return result;
+    }
+
+    private static Set<LinkMetadata> getOrCreateLinks(ConcurrentHashMap<MethodInfo, Set<LinkMetadata>> map, MethodInfo key) {
+	Set<LinkMetadata> set = map.get(key);
+	if (set == null) {
+	    Set<LinkMetadata> newSet = ConcurrentHashMap.newKeySet();
+	    set = map.putIfAbsent(key, newSet);
+	    if (set == null) {
+		set = newSet;
+	    }
+	}
+	return set;
+    }
+
+    private static Set<LinkMetadata> getLinks(Map<MethodInfo, Set<LinkMetadata>> map, MethodInfo key) {
+	return key != null ? map.get(key) : null;
+    }
+
+    private Set<LinkMetadata> getLinks(Map<MethodInfo, Set<LinkMetadata>> map, String className, String methodName, String[] parameterTypes) {
+	return getLinks(map, lookup(className, methodName, parameterTypes));
     }
 
     /**
@@ -111,13 +209,17 @@ public class MetadataRepository implements TestsMetadata {
      *      java.lang.reflect.Method)
      */
     public List<ClassLinkMetadata> getClassesTestedBy(Class<?> clazz, Method method) {
-	MethodInfo test = new MethodInfo(clazz.getCanonicalName(), new ImmutableMethodMetadata(method));
-	return getClassLinks(testsLinks.get(test));
+	return getClassLinks(getLinks(testsLinks, clazz.getCanonicalName(), method.getName(), Helper.getParameterTypesAsStringArray(method)));
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getClassesTestedBy(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata)
+     */
     public List<ClassLinkMetadata> getClassesTestedBy(String className, MethodMetadata methodMetadata) {
-	MethodInfo test = new MethodInfo(className, methodMetadata);
-	return getClassLinks(testsLinks.get(test));
+	return getClassLinks(getLinks(testsLinks, className, methodMetadata.getName(), methodMetadata.getParameterTypes()));
     }
 
     /**
@@ -127,12 +229,17 @@ public class MetadataRepository implements TestsMetadata {
      *      boolean)
      */
     public List<ClassLinkMetadata> getClassesTestedBy(Class<?> clazz, boolean includeMethods) {
-	MethodInfo test = new MethodInfo(clazz.getCanonicalName(), new ImmutableMethodMetadata());
-	Set<LinkMetadata> set = testsLinks.get(test);
-	if (includeMethods) {
-	    set = enrichUsingClassMethods(set, clazz, testsLinks);
-	}
-	return getClassLinks(set);
+	return getClassLinks(collectLinks(testsLinks, clazz.getCanonicalName(), clazz, includeMethods, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getClassesTestedBy(java.lang.String,
+     *      boolean)
+     */
+    public List<ClassLinkMetadata> getClassesTestedBy(String className, boolean includeMethods) {
+	return getClassLinks(collectLinks(testsLinks, className, null, includeMethods, false));
     }
 
     /**
@@ -142,8 +249,17 @@ public class MetadataRepository implements TestsMetadata {
      *      java.lang.reflect.Method)
      */
     public List<MethodLinkMetadata> getMethodsTestedBy(Class<?> clazz, Method method) {
-	MethodInfo test = new MethodInfo(clazz.getCanonicalName(), new ImmutableMethodMetadata(method));
-	return getMethodLinks(testsLinks.get(test));
+	return getMethodLinks(getLinks(testsLinks, clazz.getCanonicalName(), method.getName(), Helper.getParameterTypesAsStringArray(method)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getMethodsTestedBy(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata)
+     */
+    public List<MethodLinkMetadata> getMethodsTestedBy(String className, MethodMetadata methodMetadata) {
+	return getMethodLinks(getLinks(testsLinks, className, methodMetadata.getName(), methodMetadata.getParameterTypes()));
     }
 
     /**
@@ -153,12 +269,17 @@ public class MetadataRepository implements TestsMetadata {
      *      boolean)
      */
     public List<MethodLinkMetadata> getMethodsTestedBy(Class<?> clazz, boolean includeMethods) {
-	MethodInfo test = new MethodInfo(clazz.getCanonicalName(), new ImmutableMethodMetadata());
-	Set<LinkMetadata> set = testsLinks.get(test);
-	if (includeMethods) {
-	    set = enrichUsingClassMethods(set, clazz, testsLinks);
-	}
-	return getMethodLinks(set);
+	return getMethodLinks(collectLinks(testsLinks, clazz.getCanonicalName(), clazz, includeMethods, false));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getMethodsTestedBy(java.lang.String,
+     *      boolean)
+     */
+    public List<MethodLinkMetadata> getMethodsTestedBy(String className, boolean includeMethods) {
+	return getMethodLinks(collectLinks(testsLinks, className, null, includeMethods, false));
     }
 
     /**
@@ -168,8 +289,17 @@ public class MetadataRepository implements TestsMetadata {
      *      java.lang.reflect.Method)
      */
     public List<ClassLinkMetadata> getTestClassesFor(Class<?> clazz, Method method) {
-	MethodInfo tested = new MethodInfo(clazz.getCanonicalName(), new ImmutableMethodMetadata(method));
-	return getClassLinks(isTestedByLinks.get(tested));
+	return getClassLinks(getLinks(isTestedByLinks, clazz.getCanonicalName(), method.getName(), Helper.getParameterTypesAsStringArray(method)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestClassesFor(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata)
+     */
+    public List<ClassLinkMetadata> getTestClassesFor(String className, MethodMetadata methodMetadata) {
+	return getClassLinks(getLinks(isTestedByLinks, className, methodMetadata.getName(), methodMetadata.getParameterTypes()));
     }
 
     /**
@@ -182,23 +312,18 @@ public class MetadataRepository implements TestsMetadata {
 	return this.getTestClassesFor(clazz, includeMethods, false);
     }
 
-    
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestClassesFor(java.lang.String,
+     *      boolean)
+     */
+    public List<ClassLinkMetadata> getTestClassesFor(String className, boolean includeMethods) {
+	return getClassLinks(collectLinks(isTestedByLinks, className, null, includeMethods, false));
+    }
+
     protected List<ClassLinkMetadata> getTestClassesFor(Class<?> clazz, boolean includeMethods, boolean recursive) {
-	MethodInfo tested = new MethodInfo(clazz.getCanonicalName(), new ImmutableMethodMetadata());
-	Set<LinkMetadata> set = isTestedByLinks.get(tested);
-	if (includeMethods) {
-	    set = enrichUsingClassMethods(set, clazz, isTestedByLinks);
-	}
-	if (recursive) {
-	    for (Class<?> interfaceUnderTest : clazz.getInterfaces()) {
-		set.addAll(this.getTestClassesFor(interfaceUnderTest, includeMethods, recursive));
-	    }
-	    Class<?> superClass = clazz.getSuperclass();
-	    if (superClass != null && !Helper.isInJVMPackage(superClass)) {
-		set.addAll(this.getTestClassesFor(superClass, includeMethods, recursive));
-	    }
-	}
-	return getClassLinks(set);
+	return getClassLinks(collectLinks(isTestedByLinks, clazz.getCanonicalName(), clazz, includeMethods, recursive));
     }
 
     /**
@@ -208,12 +333,20 @@ public class MetadataRepository implements TestsMetadata {
      *      java.lang.reflect.Method)
      */
     public List<MethodLinkMetadata> getTestMethodsFor(Class<?> clazz, Method method) {
-	MethodInfo tested = new MethodInfo(clazz.getCanonicalName(), new ImmutableMethodMetadata(method));
-	return getMethodLinks(isTestedByLinks.get(tested));
+	return getMethodLinks(getLinks(isTestedByLinks, clazz.getCanonicalName(), method.getName(), Helper.getParameterTypesAsStringArray(method)));
     }
 
     /**
+     * {@inheritDoc}
      * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsFor(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata)
+     */
+    public List<MethodLinkMetadata> getTestMethodsFor(String className, MethodMetadata methodMetadata) {
+	return getMethodLinks(getLinks(isTestedByLinks, className, methodMetadata.getName(), methodMetadata.getParameterTypes()));
+    }
+
+    /**
      * {@inheritDoc}
      * 
      * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsFor(java.lang.Class,
@@ -224,7 +357,16 @@ public class MetadataRepository implements TestsMetadata {
     }
 
     /**
+     * {@inheritDoc}
      * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsFor(java.lang.String,
+     *      boolean)
+     */
+    public List<MethodLinkMetadata> getTestMethodsFor(String className, boolean includeMethods) {
+	return getMethodLinks(collectLinks(isTestedByLinks, className, null, includeMethods, false));
+    }
+
+    /**
      * {@inheritDoc}
      * 
      * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsForRecursive(java.lang.Class,
@@ -234,25 +376,75 @@ public class MetadataRepository implements TestsMetadata {
 	return this.getTestMethodsFor(clazz, includeMethods, true);
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsForRecursive(java.lang.String,
+     *      boolean)
+     */
+    public List<MethodLinkMetadata> getTestMethodsForRecursive(String className, boolean includeMethods) {
+	return getMethodLinks(collectLinks(isTestedByLinks, className, null, includeMethods, true));
+    }
+
     protected List<MethodLinkMetadata> getTestMethodsFor(Class<?> clazz, boolean includeMethods, boolean recursive) {
-	MethodInfo tested = new MethodInfo(clazz.getCanonicalName(), new ImmutableMethodMetadata());
-	Set<LinkMetadata> set = isTestedByLinks.get(tested);
-	if (includeMethods) {
-	    set = enrichUsingClassMethods(set, clazz, isTestedByLinks);
-	}
-	if (recursive) {
-	    for (Class<?> interfaceUnderTest : clazz.getInterfaces()) {
-		set.addAll(this.getTestMethodsFor(interfaceUnderTest, includeMethods, recursive));
-	    }
-	    Class<?> superClass = clazz.getSuperclass();
-	    if (superClass != null && !Helper.isInJVMPackage(superClass)) {
-		set.addAll(this.getTestMethodsFor(superClass, includeMethods, recursive));
+	return getMethodLinks(collectLinks(isTestedByLinks, clazz.getCanonicalName(), clazz, includeMethods, recursive));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getHottestMethodsTestedBy(java.lang.Class,
+     *      java.lang.reflect.Method, int)
+     */
+    public List<MethodLinkMetadata> getHottestMethodsTestedBy(Class<?> clazz, Method method, int max) {
+	return getMostInvoked(getMethodsTestedBy(clazz, method), max);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getHottestMethodsTestedBy(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata, int)
+     */
+    public List<MethodLinkMetadata> getHottestMethodsTestedBy(String className, MethodMetadata methodMetadata, int max) {
+	return getMostInvoked(getMethodsTestedBy(className, methodMetadata), max);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsHammering(java.lang.Class,
+     *      java.lang.reflect.Method, int)
+     */
+    public List<MethodLinkMetadata> getTestMethodsHammering(Class<?> clazz, Method method, int max) {
+	return getMostInvoked(getTestMethodsFor(clazz, method), max);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see it.javalinux.testedby.metadata.TestsMetadata#getTestMethodsHammering(java.lang.String,
+     *      it.javalinux.testedby.metadata.MethodMetadata, int)
+     */
+    public List<MethodLinkMetadata> getTestMethodsHammering(String className, MethodMetadata methodMetadata, int max) {
+	return getMostInvoked(getTestMethodsFor(className, methodMetadata), max);
+    }
+
+    static List<MethodLinkMetadata> getMostInvoked(List<MethodLinkMetadata> links, int max) {
+	MethodLinkMetadata[] array = links.toArray(new MethodLinkMetadata[links.size()]);
+	Arrays.sort(array, new Comparator<MethodLinkMetadata>() {
+	    public int compare(MethodLinkMetadata o1, MethodLinkMetadata o2) {
+		return Long.compare(o2.getStatus().getInvocationCount(), o1.getStatus().getInvocationCount());
 	    }
+	});
+	List<MethodLinkMetadata> result = new LinkedList<MethodLinkMetadata>();
+	for (int i = 0; i < array.length && i < max; i++) {
+	    result.add(array[i]);
 	}
-	return getMethodLinks(set);
+	return result;
     }
 
-    private static List<ClassLinkMetadata> getClassLinks(Collection<LinkMetadata> links) {
+    static List<ClassLinkMetadata> getClassLinks(Collection<LinkMetadata> links) {
 	Set<ClassLinkMetadata> result = new HashSet<ClassLinkMetadata>();
 	if (links != null) {
 	    for (LinkMetadata l : links) {
@@ -267,7 +459,7 @@ public class MetadataRepository implements TestsMetadata {
 	return Arrays.asList(result.toArray(new ClassLinkMetadata[result.size()]));
     }
 
-    private static List<MethodLinkMetadata> getMethodLinks(Collection<LinkMetadata> links) {
+    static List<MethodLinkMetadata> getMethodLinks(Collection<LinkMetadata> links) {
 	List<MethodLinkMetadata> result = new LinkedList<MethodLinkMetadata>();
 	if (links != null) {
 	    for (LinkMetadata l : links) {
@@ -279,37 +471,231 @@ public class MetadataRepository implements TestsMetadata {
 	return result;
     }
 
-    private static Set<LinkMetadata> enrichUsingClassMethods(Set<LinkMetadata> set, Class<?> clazz, Map<MethodInfo, Set<LinkMetadata>> source) {
-	if (set == null) {
-	    set = new HashSet<LinkMetadata>();
+    /**
+     * @param source
+     *            The links to be collected
+     * @param className
+     * @param clazz
+     *            The class, if loaded; reflection is used to get its
+     *            supertypes if its type has not been recorded
+     * @param includeMethods
+     *            True to collect the links of the class methods too
+     * @param recursive
+     *            True to collect the links of the class supertypes too
+     * @return A copy of the collected links
+     */
+    private Set<LinkMetadata> collectLinks(Map<MethodInfo, Set<LinkMetadata>> source, String className, Class<?> clazz, boolean includeMethods, boolean recursive) {
+	Set<LinkMetadata> set = new HashSet<LinkMetadata>();
+	if (recursive) {
+	    collectLinks(source, className, clazz, includeMethods, set, new HashSet<String>());
+	} else {
+	    collectLinks(source, symbols.lookupString(className), clazz, includeMethods, set);
+	}
+	return set;
+    }
+
+    // the recorded supertypes are looked up, reflection is used on the provided class only if its type has not been recorded
+    // or its public methods are needed (these are not recorded)
+    private void collectLinks(Map<MethodInfo, Set<LinkMetadata>> source, String className, Class<?> clazz, boolean includeMethods, Set<LinkMetadata> set, Set<String> visited) {
+	if (!visited.add(className)) {
+	    return;
+	}
+	int classRef = symbols.lookupString(className);
+	collectLinks(source, classRef, clazz, includeMethods, set);
+	int[] recorded = classRef != SymbolTable.UNKNOWN ? supertypes.get(classRef) : null;
+	if (recorded != null && (clazz == null || !includeMethods)) {
+	    for (int supertype : recorded) {
+		collectLinks(source, symbols.getString(supertype), null, includeMethods, set, visited);
+	    }
+	} else if (clazz != null) {
+	    for (Class<?> supertype : getSupertypes(clazz)) {
+		collectLinks(source, supertype.getCanonicalName(), supertype, includeMethods, set, visited);
+	    }
+	}
+    }
+
+    private void collectLinks(Map<MethodInfo, Set<LinkMetadata>> source, int classRef, Class<?> clazz, boolean includeMethods, Set<LinkMetadata> set) {
+	if (classRef == SymbolTable.UNKNOWN) {
+	    return;
+	}
+	Set<LinkMetadata> links = source.get(new MethodInfo(classRef, SymbolTable.NO_METHOD));
+	if (links != null) {
+	    set.addAll(links);
+	}
+	if (!includeMethods) {
+	    return;
 	}
-	for (Method m : clazz.getMethods()) {
-	    MethodInfo mi = new MethodInfo(clazz.getCanonicalName(), new ImmutableMethodMetadata(m));
-	    Set<LinkMetadata> s = source.get(mi);
-	    if (s != null) {
-		set.addAll(s);
+	if (clazz != null) {
+	    // the public methods of the class, as for the loaded class queries
+	    for (Method m : clazz.getMethods()) {
+		links = getLinks(source, clazz.getCanonicalName(), m.getName(), Helper.getParameterTypesAsStringArray(m));
+		if (links != null) {
+		    set.addAll(links);
+		}
+	    }
+	    return;
+	}
+	// no class to reflect on, every linked method is collected
+	Set<MethodInfo> classMembers = members.get(classRef);
+	if (classMembers != null) {
+	    for (MethodInfo member : classMembers) {
+		links = source.get(member);
+		if (links != null) {
+		    set.addAll(links);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Interns the provided class-method couple
+     * 
+     * @param className
+     * @param methodName
+     *            The method name, null for the class only
+     * @param parameterTypes
+     * @return The key of the provided class-method couple
+     */
+    private MethodInfo intern(String className, String methodName, String[] parameterTypes) {
+	MethodInfo info = new MethodInfo(symbols.internString(className), symbols.internMethod(methodName, parameterTypes));
+	if (!methods.containsKey(info)) {
+	    String name = symbols.getMethodName(info.getMethodRef());
+	    String[] types = symbols.getMethodParameterTypes(info.getMethodRef());
+	    // all threads get the same canonical metadata
+	    methods.putIfAbsent(info, name == null ? new ImmutableMethodMetadata() : new ImmutableMethodMetadata(getClassName(info), name, types));
+	    if (name != null) {
+		getOrCreateMembers(info.getClassRef()).add(info);
+	    }
+	}
+	return info;
+    }
+
+    private Set<MethodInfo> getOrCreateMembers(int classRef) {
+	Set<MethodInfo> set = members.get(classRef);
+	if (set == null) {
+	    Set<MethodInfo> newSet = ConcurrentHashMap.newKeySet();
+	    set = members.putIfAbsent(classRef, newSet);
+	    if (set == null) {
+		set = newSet;
 	    }
 	}
 	return set;
     }
 
     /**
-     * An inner class for class-method couples
+     * @param className
+     * @param methodName
+     *            The method name, null for the class only
+     * @param parameterTypes
+     * @return The key of the provided class-method couple, or null if no
+     *         symbol has been interned for it
+     */
+    private MethodInfo lookup(String className, String methodName, String[] parameterTypes) {
+	int classRef = symbols.lookupString(className);
+	int methodRef = symbols.lookupMethod(methodName, parameterTypes);
+	if (classRef == SymbolTable.UNKNOWN || methodRef == SymbolTable.UNKNOWN) {
+	    return null;
+	}
+	return new MethodInfo(classRef, methodRef);
+    }
+
+    /**
+     * @param info
+     *            A key of the provided repository
+     * @param source
+     * @return The key of the same class-method couple in this repository,
+     *         which is interned if required
+     */
+    private MethodInfo intern(MethodInfo info, MetadataRepository source) {
+	return intern(source.getClassName(info), source.symbols.getMethodName(info.getMethodRef()), source.symbols.getMethodParameterTypes(info.getMethodRef()));
+    }
+
+    /**
+     * @param info
+     *            A key of the provided repository
+     * @param source
+     * @return The key of the same class-method couple in this repository, or
+     *         null if there's no such couple
+     */
+    private MethodInfo lookup(MethodInfo info, MetadataRepository source) {
+	return lookup(source.getClassName(info), source.symbols.getMethodName(info.getMethodRef()), source.symbols.getMethodParameterTypes(info.getMethodRef()));
+    }
+
+    /**
+     * @param link
+     *            A link of another repository
+     * @return An equivalent link sharing this repository symbols
+     */
+    private LinkMetadata intern(LinkMetadata link) {
+	if (link instanceof MethodLinkMetadata) {
+	    MethodLinkMetadata methodLink = (MethodLinkMetadata) link;
+	    MethodMetadata method = methodLink.getMethod();
+	    MethodInfo info = intern(methodLink.getClazz(), method.getName(), method.getParameterTypes());
+	    return new MethodLinkMetadata(link.getStatus(), getClassName(info), method.getName() != null ? methods.get(info) : method);
+	}
+	if (link instanceof ClassLinkMetadata) {
+	    String clazz = ((ClassLinkMetadata) link).getClazz();
+	    return new ClassLinkMetadata(link.getStatus(), clazz != null ? symbols.getString(symbols.internString(clazz)) : null);
+	}
+	return link;
+    }
+
+    String getClassName(MethodInfo info) {
+	return symbols.getString(info.getClassRef());
+    }
+
+    MethodMetadata getMethodMetadata(MethodInfo info) {
+	return methods.get(info);
+    }
+
+    /**
+     * @return The direct supertypes of each recorded type, by class name
+     */
+    Map<String, String[]> getTypes() {
+	Map<String, String[]> result = new HashMap<String, String[]>();
+	for (Entry<Integer, int[]> entry : supertypes.entrySet()) {
+	    String[] names = new String[entry.getValue().length];
+	    for (int i = 0; i < names.length; i++) {
+		names[i] = symbols.getString(entry.getValue()[i]);
+	    }
+	    result.put(symbols.getString(entry.getKey()), names);
+	}
+	return result;
+    }
+
+    /**
+     * @return What each class-method tests; the map is not to be modified
+     */
+    Map<MethodInfo, Set<LinkMetadata>> getTestsLinks() {
+	return testsLinks;
+    }
+
+    /**
+     * @return What each class-method is tested by; the map is not to be
+     *         modified
+     */
+    Map<MethodInfo, Set<LinkMetadata>> getIsTestedByLinks() {
+	return isTestedByLinks;
+    }
+
+    /**
+     * An inner class for class-method couples, as ids of the repository
+     * symbol table
      * 
      */
-    private static class MethodInfo implements Serializable {
+    static class MethodInfo implements Serializable {
 
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
 
-	private String classRef;
+	private final int classRef;
 
-	private MethodMetadata methodRef;
+	private final int methodRef;
 
 	/**
 	 * @param classRef
 	 * @param methodRef
 	 */
-	public MethodInfo(String classRef, MethodMetadata methodRef) {
+	public MethodInfo(int classRef, int methodRef) {
 	    super();
 	    this.classRef = classRef;
 	    this.methodRef = methodRef;
@@ -318,14 +704,14 @@ public class MetadataRepository implements TestsMetadata {
 	/**
 	 * @return classRef
 	 */
-	public String getClassRef() {
+	public int getClassRef() {
 	    return classRef;
 	}
 
 	/**
 	 * @return methodRef
 	 */
-	public MethodMetadata getMethodRef() {
+	public int getMethodRef() {
 	    return methodRef;
 	}
 
@@ -335,16 +721,12 @@ public class MetadataRepository implements TestsMetadata {
 		return false;
 	    }
 	    MethodInfo mi = (MethodInfo) obj;
-	    // testClass check
-	    boolean testClassCheck = (classRef == null) ? (mi.getClassRef() == null) : classRef.equals(mi.getClassRef());
-	    // testMethod check
-	    boolean testMethodCheck = (methodRef == null) ? (mi.getMethodRef() == null) : methodRef.equals(mi.getMethodRef());
-	    return testClassCheck && testMethodCheck;
+	    return classRef == mi.classRef && methodRef == mi.methodRef;
 	}
 
 	@Override
 	public int hashCode() {
-	    return 31 * (classRef.hashCode() + methodRef.hashCode());
+	    return 31 * classRef + methodRef;
 	}
 
 	/**
@@ -419,8 +801,19 @@ public class MetadataRepository implements TestsMetadata {
     public int hashCode() {
 	final int prime = 31;
 	int result = 1;
-	result = prime * result + ((isTestedByLinks == null) ? 0 : isTestedByLinks.hashCode());
-	result = prime * result + ((testsLinks == null) ? 0 : testsLinks.hashCode());
+	result = prime * result + hashCode(isTestedByLinks);
+	result = prime * result + hashCode(testsLinks);
+	return result;
+    }
+
+    // the symbol ids depend on the insertion order, hence the keys are hashed by name
+    private int hashCode(Map<MethodInfo, Set<LinkMetadata>> links) {
+	int result = 0;
+	for (Entry<MethodInfo, Set<LinkMetadata>> entry : links.entrySet()) {
+	    String className = getClassName(entry.getKey());
+	    int keyHash = 31 * (className == null ? 0 : className.hashCode()) + methods.get(entry.getKey()).hashCode();
+	    result += keyHash ^ entry.getValue().hashCode();
+	}
 	return result;
     }
 
@@ -438,16 +831,19 @@ public class MetadataRepository implements TestsMetadata {
 	if (getClass() != obj.getClass())
 	    return false;
 	MetadataRepository other = (MetadataRepository) obj;
-	if (isTestedByLinks == null) {
-	    if (other.isTestedByLinks != null)
-		return false;
-	} else if (!isTestedByLinks.equals(other.isTestedByLinks))
+	return equals(testsLinks, other, other.testsLinks) && equals(isTestedByLinks, other, other.isTestedByLinks);
+    }
+
+    private boolean equals(Map<MethodInfo, Set<LinkMetadata>> links, MetadataRepository other, Map<MethodInfo, Set<LinkMetadata>> otherLinks) {
+	if (links.size() != otherLinks.size()) {
 	    return false;
-	if (testsLinks == null) {
-	    if (other.testsLinks != null)
+	}
+	for (Entry<MethodInfo, Set<LinkMetadata>> entry : otherLinks.entrySet()) {
+	    MethodInfo key = lookup(entry.getKey(), other);
+	    if (key == null || !entry.getValue().equals(links.get(key))) {
 		return false;
-	} else if (!testsLinks.equals(other.testsLinks))
-	    return false;
+	    }
+	}
 	return true;
     }
 
@@ -459,38 +855,10 @@ public class MetadataRepository implements TestsMetadata {
     public boolean merge(Mergeable right) {
 	if (right instanceof MetadataRepository) {
 	    MetadataRepository r = (MetadataRepository) right;
-	    Set<LinkMetadata> nonFoundRightsLink = new HashSet<LinkMetadata>();
-
-	    for (Entry<MethodInfo, Set<LinkMetadata>> entry : r.testsLinks.entrySet()) {
-		if (this.testsLinks.containsKey(entry.getKey())) {
-		    nonFoundRightsLink.clear();
-		    for (LinkMetadata leftLink : this.testsLinks.get(entry.getKey())) {
-			for (LinkMetadata rightLink : entry.getValue()) {
-			    if (!leftLink.merge(rightLink)) {
-				nonFoundRightsLink.add(rightLink);
-			    }
-			}
-		    }
-		    this.testsLinks.get(entry.getKey()).addAll(nonFoundRightsLink);
-		} else {
-		    this.testsLinks.put(entry.getKey(), entry.getValue());
-		}
-	    }
-
-	    for (Entry<MethodInfo, Set<LinkMetadata>> entry : r.isTestedByLinks.entrySet()) {
-		if (this.isTestedByLinks.containsKey(entry.getKey())) {
-		    nonFoundRightsLink.clear();
-		    for (LinkMetadata leftLink : this.isTestedByLinks.get(entry.getKey())) {
-			for (LinkMetadata rightLink : entry.getValue()) {
-			    if (!leftLink.merge(rightLink)) {
-				nonFoundRightsLink.add(rightLink);
-			    }
-			}
-		    }
-		    this.isTestedByLinks.get(entry.getKey()).addAll(nonFoundRightsLink);
-		} else {
-		    this.isTestedByLinks.put(entry.getKey(), entry.getValue());
-		}
+	    merge(testsLinks, r, r.testsLinks);
+	    merge(isTestedByLinks, r, r.isTestedByLinks);
+	    for (Entry<String, String[]> entry : r.getTypes().entrySet()) {
+		addType(entry.getKey(), entry.getValue());
 	    }
 	    return true;
 	} else {
@@ -498,10 +866,42 @@ public class MetadataRepository implements TestsMetadata {
 	}
     }
 
+    private void merge(ConcurrentHashMap<MethodInfo, Set<LinkMetadata>> links, MetadataRepository r, Map<MethodInfo, Set<LinkMetadata>> rightLinks) {
+	for (Entry<MethodInfo, Set<LinkMetadata>> entry : rightLinks.entrySet()) {
+	    // the right repository has its own symbol table
+	    Set<LinkMetadata> leftLinks = getOrCreateLinks(links, intern(entry.getKey(), r));
+	    for (LinkMetadata rightLink : entry.getValue()) {
+		// the status of the equal left link, if any, is merged, otherwise the right link is added
+		for (LinkMetadata leftLink : leftLinks) {
+		    leftLink.merge(rightLink);
+		}
+		leftLinks.add(intern(rightLink));
+	    }
+	}
+    }
+
 	@Override
 	public String toString() {
-		return "MetadataRepository [testsLinks=" + testsLinks
-				+ ", isTestedByLinks=" + isTestedByLinks + "]";
+		return "MetadataRepository [testsLinks=" + toString(testsLinks)
+				+ ", isTestedByLinks=" + toString(isTestedByLinks) + "]";
 	}
 
+    // the keys are printed by name, as their symbol ids mean nothing outside of the repository
+    private String toString(Map<MethodInfo, Set<LinkMetadata>> links) {
+	StringBuilder sb = new StringBuilder("{");
+	for (Entry<MethodInfo, Set<LinkMetadata>> entry : links.entrySet()) {
+	    if (sb.length() > 1) {
+		sb.append(", ");
+	    }
+	    int methodRef = entry.getKey().getMethodRef();
+	    String methodName = symbols.getMethodName(methodRef);
+	    sb.append("MethodInfo [classRef=").append(getClassName(entry.getKey())).append(", methodRef=").append(methodName);
+	    if (methodName != null) {
+		sb.append(Arrays.toString(symbols.getMethodParameterTypes(methodRef)));
+	    }
+	    sb.append("]=").append(entry.getValue());
+	}
+	return sb.append("}").toString();
+    }
+
 }
@@ -0,0 +1,227 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A table of the symbols (class names, method names and parameter types)
+ * used by a MetadataRepository: each symbol is stored once and identified by
+ * an int, so that the repository keys are pairs of ints and the links share
+ * the same String instances.
+ *
+ * A method symbol is a method name together with its parameter types.
+ *
+ * The table is thread safe: lookups don't lock, while new symbols are added
+ * under the table lock and published through volatile arrays, so that any
+ * id obtained from the table can be resolved by any thread.
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+class SymbolTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The id of the method symbol of class level keys (no method)
+     */
+    static final int NO_METHOD = -1;
+
+    /**
+     * The id returned by lookups of unknown symbols
+     */
+    static final int UNKNOWN = -2;
+
+    // the id of the null string (concurrent maps don't allow null keys)
+    private static final int NULL_STRING = 0;
+
+    private static final String[] NO_PARAMETERS = new String[0];
+
+    private final ConcurrentMap<String, Integer> stringIds = new ConcurrentHashMap<String, Integer>();
+
+    private volatile String[] strings = new String[64];
+
+    private int stringCount = 1;
+
+    private final ConcurrentMap<List<String>, Integer> parameterTypesIds = new ConcurrentHashMap<List<String>, Integer>();
+
+    private volatile String[][] parameterTypes = new String[64][];
+
+    private int parameterTypesCount;
+
+    private final ConcurrentMap<Long, Integer> methodIds = new ConcurrentHashMap<Long, Integer>();
+
+    // the name (high int) and parameter types (low int) ids of each method
+    private volatile long[] methods = new long[64];
+
+    private int methodCount;
+
+    /**
+     * @param s
+     * @return The id of the provided string, which is added to the table if
+     *         not already there
+     */
+    int internString(String s) {
+	if (s == null) {
+	    return NULL_STRING;
+	}
+	Integer id = stringIds.get(s);
+	if (id == null) {
+	    synchronized (this) {
+		id = stringIds.get(s);
+		if (id == null) {
+		    id = stringCount;
+		    String[] current = strings;
+		    if (stringCount == current.length) {
+			current = Arrays.copyOf(current, stringCount * 2);
+		    }
+		    current[stringCount++] = s;
+		    strings = current;
+		    stringIds.put(s, id);
+		}
+	    }
+	}
+	return id;
+    }
+
+    /**
+     * @param s
+     * @return The id of the provided string, or UNKNOWN
+     */
+    int lookupString(String s) {
+	if (s == null) {
+	    return NULL_STRING;
+	}
+	Integer id = stringIds.get(s);
+	return id != null ? id : UNKNOWN;
+    }
+
+    /**
+     * @param id
+     * @return The string with the provided id
+     */
+    String getString(int id) {
+	return strings[id];
+    }
+
+    /**
+     * @param name
+     *            The method name, null for class level keys
+     * @param types
+     *            The method parameter types (can be null)
+     * @return The id of the provided method symbol, which is added to the
+     *         table if not already there
+     */
+    int internMethod(String name, String[] types) {
+	if (name == null) {
+	    return NO_METHOD;
+	}
+	Long key = ((long) internString(name) << 32) | internParameterTypes(types);
+	Integer id = methodIds.get(key);
+	if (id == null) {
+	    synchronized (this) {
+		id = methodIds.get(key);
+		if (id == null) {
+		    id = methodCount;
+		    long[] current = methods;
+		    if (methodCount == current.length) {
+			current = Arrays.copyOf(current, methodCount * 2);
+		    }
+		    current[methodCount++] = key;
+		    methods = current;
+		    methodIds.put(key, id);
+		}
+	    }
+	}
+	return id;
+    }
+
+    /**
+     * @param name
+     * @param types
+     * @return The id of the provided method symbol, NO_METHOD for a null name
+     *         or UNKNOWN
+     */
+    int lookupMethod(String name, String[] types) {
+	if (name == null) {
+	    return NO_METHOD;
+	}
+	int nameId = lookupString(name);
+	Integer typesId = parameterTypesIds.get(asList(types));
+	if (nameId == UNKNOWN || typesId == null) {
+	    return UNKNOWN;
+	}
+	Integer id = methodIds.get(((long) nameId << 32) | typesId);
+	return id != null ? id : UNKNOWN;
+    }
+
+    /**
+     * @param methodId
+     * @return The name of the provided method, null for NO_METHOD
+     */
+    String getMethodName(int methodId) {
+	return methodId == NO_METHOD ? null : strings[(int) (methods[methodId] >>> 32)];
+    }
+
+    /**
+     * @param methodId
+     * @return The parameter types of the provided method; the returned array
+     *         is shared and is not to be modified
+     */
+    String[] getMethodParameterTypes(int methodId) {
+	return methodId == NO_METHOD ? NO_PARAMETERS : parameterTypes[(int) methods[methodId]];
+    }
+
+    private int internParameterTypes(String[] types) {
+	List<String> key = asList(types);
+	Integer id = parameterTypesIds.get(key);
+	if (id == null) {
+	    String[] interned = new String[key.size()];
+	    for (int i = 0; i < interned.length; i++) {
+		interned[i] = getString(internString(key.get(i)));
+	    }
+	    synchronized (this) {
+		id = parameterTypesIds.get(key);
+		if (id == null) {
+		    id = parameterTypesCount;
+		    String[][] current = parameterTypes;
+		    if (parameterTypesCount == current.length) {
+			current = Arrays.copyOf(current, parameterTypesCount * 2);
+		    }
+		    current[parameterTypesCount++] = interned;
+		    parameterTypes = current;
+		    parameterTypesIds.put(Arrays.asList(interned), id);
+		}
+	    }
+	}
+	return id;
+    }
+
+    private static List<String> asList(String[] types) {
+	return Arrays.asList(types != null ? types : NO_PARAMETERS);
+    }
+}
@@ -27,16 +27,28 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.logging.Logger;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.DomDriver;
 
 /**
+ * Serializes the metadata using the Java serialization, along with an XML
+ * dump (the .debug file) written through XStream for debugging purposes.
+ * 
+ * On JDK 9 and later XStream needs reflective access to the JDK collections
+ * the metadata is made of, that is the JVM is to be run with
+ * --add-opens java.base/java.util=ALL-UNNAMED and
+ * --add-opens java.base/java.util.concurrent=ALL-UNNAMED; without them the
+ * XML dump is skipped, the serialized metadata being still written.
+ * 
  * @author Stefano Maestri stefano.maestri@javalinux.it
  * 
  */
 public class SimpleMetadataSerializer implements MetadataSerializer {
 
+	private static Logger LOG = Logger.getLogger(SimpleMetadataSerializer.class.getName());
+
 	/**
 	 * {@inheritDoc}
 	 * 
@@ -126,8 +138,8 @@ public class SimpleMetadataSerializer implements MetadataSerializer {
 			fos = new FileOutputStream(fileName + ".debug");
 			fos.write(xstream.toXML(metadata).getBytes());
 		} catch (Exception e) {
-			e.printStackTrace();
-			return false;
+			// just a debugging aid, the metadata has already been serialized
+			LOG.warning("Could not write the XML dump of the metadata: " + e.getMessage());
 		} finally {
 
 			try {
@@ -33,6 +33,8 @@ import it.javalinux.testedby.metadata.impl.ImmutableMethodMetadata;
 import it.javalinux.testedby.metadata.serializer.MetadataSerializer;
 import it.javalinux.testedby.metadata.serializer.impl.SimpleMetadataSerializer;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.HashSet;
@@ -52,6 +54,18 @@ import org.junit.Test;
  */
 public abstract class AbstractUnitRunner implements TestRunner, InstrumentationTestRunner {
 
+    /**
+     * The system property setting the max number of build steps waiting to be
+     * performed in background (0 to build the metadata on the test thread)
+     */
+    public static final String PIPELINE_PROPERTY = "testedby.pipeline";
+
+    /**
+     * The metadata is built on the test thread unless the pipeline is
+     * explicitly enabled (e.g. -Dtestedby.pipeline=64)
+     */
+    public static final int DEFAULT_PIPELINE_CAPACITY = 0;
+
     public TestsMetadata run(List<Class<?>> changedClassesUnderTest, List<Class<?>> changedTestClasses) throws Exception {
 	return run(changedClassesUnderTest, changedTestClasses, new SimpleMetadataSerializer());
     }
@@ -72,8 +86,15 @@ public abstract class AbstractUnitRunner implements TestRunner, InstrumentationT
      */
     public TestsMetadata run(List<Class<?>> changedClassesUnderTest, List<Class<?>> changedTestClasses, TestsMetadata metadata) throws Exception {
 	AnnotationBasedMetadataBuilder annotationBuilder = new AnnotationBasedMetadataBuilder();
-	InstrumentationBasedMetadataBuilder instrumentationBuilder = new InstrumentationBasedMetadataBuilder();
+	InstrumentationBasedMetadataBuilder instrumentationBuilder = createInstrumentationBuilder();
+	try {
+	    return run(changedClassesUnderTest, changedTestClasses, metadata, annotationBuilder, instrumentationBuilder);
+	} finally {
+	    instrumentationBuilder.close();
+	}
+    }
 
+    private TestsMetadata run(List<Class<?>> changedClassesUnderTest, List<Class<?>> changedTestClasses, TestsMetadata metadata, AnnotationBasedMetadataBuilder annotationBuilder, InstrumentationBasedMetadataBuilder instrumentationBuilder) throws Exception {
 	if (metadata != null) {
 	    metadata.merge(annotationBuilder.build(changedClassesUnderTest, metadata.getAllTestClasses(), changedTestClasses));
 		
@@ -155,21 +176,78 @@ public abstract class AbstractUnitRunner implements TestRunner, InstrumentationT
     }
 
     protected boolean runSingleTestUsingInstrumentationBuilder(InstrumentationBasedMetadataBuilder builder, String testClassName, String methodName, boolean justCreated, ClassLinkMetadata... classesUnderTest) throws Exception {
-	InvocationTracker.cleanUp();
-	InvocationTracker tracker = InvocationTracker.getInstance();
+	// tests get their own context, unless all threads share the same tracker
+	boolean ownContext = !InvocationTracker.isSharedContext();
+	String testId = testClassName + "#" + methodName;
+	InvocationTracker tracker;
+	if (ownContext) {
+	    tracker = InvocationTracker.begin(testId);
+	} else {
+	    InvocationTracker.cleanUp();
+	    tracker = InvocationTracker.getInstance();
+	}
 	tracker.setTestClass(testClassName);
 	tracker.setTestMethod(methodName);
 	tracker.setSkipTestClass(true);
-	boolean result = runTest(testClassName, methodName, classesUnderTest);
+	long cpuTime = getCurrentThreadCpuTime();
+	long allocatedBytes = getCurrentThreadAllocatedBytes();
+	long start = System.nanoTime();
+	long wallTime;
+	boolean result;
+	try {
+	    result = runTest(testClassName, methodName, classesUnderTest);
+	} finally {
+	    // the clocks are stopped before collecting the invocations, not to measure the tracker
+	    wallTime = System.nanoTime() - start;
+	    cpuTime = cpuTime >= 0 ? getCurrentThreadCpuTime() - cpuTime : -1;
+	    allocatedBytes = allocatedBytes >= 0 ? getCurrentThreadAllocatedBytes() - allocatedBytes : -1;
+	    if (ownContext) {
+		InvocationTracker.end(testId);
+	    }
+	}
 	StatusMetadata status = new StatusMetadata();
 	status.setFromInstrumentation(true);
 	status.setValid(true);
 	status.setJustCreated(justCreated);
 	status.setPassedOnLastRun(result);
-	builder.performBuildStep(testClassName, methodName, null, status);
+	status.setWallTimeNanos(wallTime);
+	status.setCpuTimeNanos(cpuTime);
+	status.setAllocatedBytes(allocatedBytes);
+	if (ownContext) {
+	    builder.performBuildStep(tracker, testClassName, methodName, null, status);
+	} else {
+	    builder.performBuildStep(testClassName, methodName, null, status);
+	}
 	return result;
     }
 
+    /**
+     * @return The CPU time of the current thread in nanoseconds, or -1 if not
+     *         supported by the JVM
+     */
+    private static long getCurrentThreadCpuTime() {
+	ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	if (bean.isCurrentThreadCpuTimeSupported() && bean.isThreadCpuTimeEnabled()) {
+	    return bean.getCurrentThreadCpuTime();
+	}
+	return -1;
+    }
+
+    /**
+     * @return The bytes allocated by the current thread so far, or -1 if not
+     *         supported by the JVM
+     */
+    private static long getCurrentThreadAllocatedBytes() {
+	ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	if (bean instanceof com.sun.management.ThreadMXBean) {
+	    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+	    if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+		return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	    }
+	}
+	return -1;
+    }
+
     /**
      * 
      * {@inheritDoc}
@@ -177,13 +255,28 @@ public abstract class AbstractUnitRunner implements TestRunner, InstrumentationT
      * @see it.javalinux.testedby.instrumentation.InstrumentationTestRunner#run(java.util.List)
      */
     public TestsMetadata run(List<Class<?>> tests) throws Exception {
-	InstrumentationBasedMetadataBuilder builder = new InstrumentationBasedMetadataBuilder();
-	for (Class<?> test : tests) {
-	    for (Method method : getTestMethods(test)) {
-		runSingleTestUsingInstrumentationBuilder(builder, test.getName(), method.getName(), true);
+	InstrumentationBasedMetadataBuilder builder = createInstrumentationBuilder();
+	try {
+	    for (Class<?> test : tests) {
+		for (Method method : getTestMethods(test)) {
+		    runSingleTestUsingInstrumentationBuilder(builder, test.getName(), method.getName(), true);
+		}
 	    }
+	    return builder.getMetadata();
+	} finally {
+	    builder.close();
 	}
-	return builder.getMetadata();
+    }
+
+    /**
+     * Creates the builder collecting the metadata of the tests run; the
+     * build steps are performed on the test thread, unless the pipeline is
+     * enabled through the testedby.pipeline system property.
+     * 
+     * @return The instrumentation based metadata builder
+     */
+    protected InstrumentationBasedMetadataBuilder createInstrumentationBuilder() {
+	return new InstrumentationBasedMetadataBuilder(Integer.getInteger(PIPELINE_PROPERTY, DEFAULT_PIPELINE_CAPACITY));
     }
 
     /**
@@ -21,10 +21,17 @@
 package it.javalinux.testedby.instrumentation;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import it.javalinux.testedby.metadata.builder.instrumentation.MappedCoverageBuffer;
+import it.javalinux.testedby.testsupport.instrumentation.Foo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
 import org.junit.Test;
 
 /**
@@ -39,25 +46,94 @@ public class AgentTest {
     @Test
     public void shouldParseArgumentsCorrectly() throws Exception {
 	Agent.parseArguments(null);
-	assertNull(Agent.includes);
-	assertNull(Agent.excludes);
-	assertArrayEquals(Agent.classesExcludes, new String[]{"$Proxy"});
+	assertNull(Agent.configuration.includes);
+	assertNull(Agent.configuration.excludes);
+	assertArrayEquals(Agent.configuration.classesExcludes, new String[]{"$Proxy"});
 	Agent.parseArguments("include=it/javalinux");
-	assertArrayEquals(Agent.includes, new String[]{"it/javalinux/"});
-	assertNull(Agent.excludes);
-	assertArrayEquals(Agent.classesExcludes, new String[]{"$Proxy"});
+	assertArrayEquals(Agent.configuration.includes, new String[]{"it/javalinux/"});
+	assertNull(Agent.configuration.excludes);
+	assertArrayEquals(Agent.configuration.classesExcludes, new String[]{"$Proxy"});
 	Agent.parseArguments("include=it/javalinux,it/javalinux/testedby");
-	assertArrayEquals(Agent.includes, new String[]{"it/javalinux/","it/javalinux/testedby/"});
-	assertNull(Agent.excludes);
-	assertArrayEquals(Agent.classesExcludes, new String[]{"$Proxy"});
+	assertArrayEquals(Agent.configuration.includes, new String[]{"it/javalinux/","it/javalinux/testedby/"});
+	assertNull(Agent.configuration.excludes);
+	assertArrayEquals(Agent.configuration.classesExcludes, new String[]{"$Proxy"});
 	Agent.parseArguments("include=it/javalinux,it/javalinux/testedby#exclude=it/javalinux/testedby/metadata");
-	assertArrayEquals(Agent.includes, new String[]{"it/javalinux/","it/javalinux/testedby/"});
-	assertArrayEquals(Agent.excludes, new String[]{"it/javalinux/testedby/metadata/"});
-	assertArrayEquals(Agent.classesExcludes, new String[]{"$Proxy"});
+	assertArrayEquals(Agent.configuration.includes, new String[]{"it/javalinux/","it/javalinux/testedby/"});
+	assertArrayEquals(Agent.configuration.excludes, new String[]{"it/javalinux/testedby/metadata/"});
+	assertArrayEquals(Agent.configuration.classesExcludes, new String[]{"$Proxy"});
 	Agent.parseArguments("include=it/javalinux,it/javalinux/testedby#exclude=it/javalinux/testedby/metadata#classesExclude=Foo");
-	assertArrayEquals(Agent.includes, new String[]{"it/javalinux/","it/javalinux/testedby/"});
-	assertArrayEquals(Agent.excludes, new String[]{"it/javalinux/testedby/metadata/"});
-	assertArrayEquals(Agent.classesExcludes, new String[]{"Foo"});
+	assertArrayEquals(Agent.configuration.includes, new String[]{"it/javalinux/","it/javalinux/testedby/"});
+	assertArrayEquals(Agent.configuration.excludes, new String[]{"it/javalinux/testedby/metadata/"});
+	assertArrayEquals(Agent.configuration.classesExcludes, new String[]{"Foo"});
+	assertFalse(Agent.configuration.probeArrays);
+	Agent.parseArguments("include=it/javalinux#probes=array");
+	assertArrayEquals(Agent.configuration.includes, new String[]{"it/javalinux/"});
+	assertTrue(Agent.configuration.probeArrays);
+	assertNull(Agent.configuration.cacheDir);
+	Agent.parseArguments("cacheDir=/tmp/testedby-cache");
+	assertNull(Agent.configuration.includes);
+	assertFalse(Agent.configuration.probeArrays);
+	assertEquals("/tmp/testedby-cache", Agent.configuration.cacheDir);
+	assertEquals(ClassPools.DEFAULT_MAX_USES, Agent.configuration.maxPoolUses);
+	Agent.parseArguments("maxPoolUses=50");
+	assertEquals(50, Agent.configuration.maxPoolUses);
+	assertTrue(Agent.configuration.tracking);
+	Agent.parseArguments("tracking=off");
+	assertFalse(Agent.configuration.tracking);
+	assertFalse(Agent.configuration.classGranularity);
+	Agent.parseArguments("granularity=class");
+	assertTrue(Agent.configuration.classGranularity);
+	assertEquals(0, Agent.configuration.skip);
+	Agent.parseArguments("skip=synthetic,accessor");
+	assertEquals(ClassInstrumenter.SKIP_SYNTHETIC | ClassInstrumenter.SKIP_ACCESSOR, Agent.configuration.skip);
+	assertFalse(Agent.configuration.propagateContext);
+	Agent.parseArguments("propagateContext=true");
+	assertTrue(Agent.configuration.propagateContext);
+	assertFalse(Agent.configuration.sharedContext);
+	Agent.parseArguments("context=shared");
+	assertTrue(Agent.configuration.sharedContext);
+	assertFalse(Agent.configuration.counting);
+	Agent.parseArguments("counting=true");
+	assertTrue(Agent.configuration.counting);
+	assertNull(Agent.configuration.coverageFile);
+	assertEquals(MappedCoverageBuffer.DEFAULT_SLOTS, Agent.configuration.coverageSlots);
+	Agent.parseArguments("coverageFile=/tmp/testedby.coverage#coverageSlots=10#coverageMethods=100");
+	assertEquals("/tmp/testedby.coverage", Agent.configuration.coverageFile);
+	assertEquals(10, Agent.configuration.coverageSlots);
+	assertEquals(100, Agent.configuration.coverageMethods);
+	Agent.parseArguments(null);
+	assertFalse(Agent.configuration.probeArrays);
+	assertNull(Agent.configuration.cacheDir);
+	assertEquals(ClassPools.DEFAULT_MAX_USES, Agent.configuration.maxPoolUses);
+    }
+    
+    @Test
+    public void shouldCollectTelemetry() throws Exception {
+	Agent.parseArguments(null);
+	Agent agent = new Agent();
+	InputStream is = AgentTest.class.getClassLoader().getResourceAsStream(Foo.class.getName().replace('.', '/') + ".class");
+	ByteArrayOutputStream baos = new ByteArrayOutputStream();
+	byte[] buffer = new byte[4096];
+	int n;
+	while ((n = is.read(buffer)) != -1) {
+	    baos.write(buffer, 0, n);
+	}
+	is.close();
+	byte[] bytes = baos.toByteArray();
+	byte[] modified = agent.transform(AgentTest.class.getClassLoader(), Foo.class.getName().replace('.', '/'), null, null, bytes);
+	agent.transform(AgentTest.class.getClassLoader(), "it/javalinux/testedby/metadata/MyClass", null, null, bytes);
+	AgentStats stats = agent.getStats();
+	assertEquals(2, stats.getClassesSeen());
+	assertEquals(1, stats.getClassesInstrumented());
+	assertEquals(1, stats.getClassesSkipped());
+	assertEquals(0, stats.getClassesFailed());
+	assertEquals(bytes.length, stats.getBytesIn());
+	assertEquals(modified.length, stats.getBytesOut());
+	assertTrue(stats.getBytesOut() > stats.getBytesIn());
+	assertTrue(stats.getMaxTransformTimeMicros() <= stats.getTotalTransformTimeMicros());
+	assertEquals(1, stats.getClassPools());
+	stats.reset();
+	assertEquals(0, stats.getClassesSeen());
     }
     
     @Test
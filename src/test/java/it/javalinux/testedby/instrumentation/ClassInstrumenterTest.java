@@ -0,0 +1,296 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import it.javalinux.testedby.metadata.builder.instrumentation.InvocationTracker;
+import it.javalinux.testedby.metadata.builder.instrumentation.MethodRegistry;
+import it.javalinux.testedby.testsupport.instrumentation.Bean;
+import it.javalinux.testedby.testsupport.instrumentation.Submitter;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import javassist.ClassPool;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.expr.ExprEditor;
+import javassist.expr.MethodCall;
+
+import org.junit.Test;
+
+/**
+ * Tests for the methods being given probes
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class ClassInstrumenterTest {
+
+    private static final String BEAN = Bean.class.getName();
+
+    private static final String SUBMITTER = Submitter.class.getName();
+
+    private static final String COMPARE_TO_BRIDGE = BEAN + ".compareTo(java.lang.Object)";
+
+    @Test
+    public void shouldInstrumentAllMethodsByDefault() throws Exception {
+	Set<String> probed = getProbedMethods(0);
+	assertThat(probed.size(), is(7));
+	assertTrue(probed.contains(BEAN + "()"));
+	assertTrue(probed.contains(COMPARE_TO_BRIDGE));
+	assertTrue(probed.contains(BEAN + ".getName()"));
+    }
+
+    @Test
+    public void shouldSkipSyntheticAndBridgeMethods() throws Exception {
+	for (int skip : new int[] { ClassInstrumenter.SKIP_SYNTHETIC, ClassInstrumenter.SKIP_BRIDGE }) {
+	    Set<String> probed = getProbedMethods(skip);
+	    assertThat(probed.size(), is(6));
+	    assertFalse(probed.contains(COMPARE_TO_BRIDGE));
+	    assertTrue(probed.contains(BEAN + ".compareTo(" + BEAN + ")"));
+	}
+    }
+
+    @Test
+    public void shouldSkipAccessors() throws Exception {
+	Set<String> probed = getProbedMethods(ClassInstrumenter.SKIP_ACCESSOR);
+	assertThat(probed.size(), is(4));
+	assertFalse(probed.contains(BEAN + ".getName()"));
+	assertFalse(probed.contains(BEAN + ".setName(java.lang.String)"));
+	assertFalse(probed.contains(BEAN + ".getCount()"));
+	assertTrue(probed.contains(BEAN + ".getDescription()"));
+    }
+
+    @Test
+    public void shouldPropagateTheTrackerToPooledThreads() throws Exception {
+	final int id = MethodRegistry.getInstance().register("org.foo.Task", "org.foo.Task.run()");
+	Runnable runnable = new Runnable() {
+	    public void run() {
+		InvocationTracker.getInstance().addInvokedMethod(id);
+	    }
+	};
+	Callable<String> callable = new Callable<String>() {
+	    public String call() throws Exception {
+		InvocationTracker.getInstance().addInvokedMethod(id);
+		return "done";
+	    }
+	};
+	Supplier<String> supplier = new Supplier<String>() {
+	    public String get() {
+		InvocationTracker.getInstance().addInvokedMethod(id);
+		return "supplied";
+	    }
+	};
+	ExecutorService executor = Executors.newSingleThreadExecutor();
+	try {
+	    // the pooled thread is created (getting the current tracker) before the test starts
+	    executor.submit(new Runnable() {
+		public void run() {
+		}
+	    }).get();
+	    Class<?> plain = Submitter.class;
+	    Class<?> instrumented = new BytesClassLoader().define(SUBMITTER, instrument(SUBMITTER, new ClassInstrumenter(false, false, false, 0, true)));
+
+	    InvocationTracker.cleanUp();
+	    plain.getMethod("submit", ExecutorService.class, Runnable.class).invoke(null, executor, runnable);
+	    assertFalse(InvocationTracker.getInstance().getInvokedMethodMap().containsKey("org.foo.Task"));
+
+	    InvocationTracker.cleanUp();
+	    instrumented.getMethod("submit", ExecutorService.class, Runnable.class).invoke(null, executor, runnable);
+	    assertTrue(InvocationTracker.getInstance().getInvokedMethodMap().containsKey("org.foo.Task"));
+
+	    InvocationTracker.cleanUp();
+	    assertThat((String) instrumented.getMethod("submit", ExecutorService.class, Callable.class).invoke(null, executor, callable), is("done"));
+	    assertTrue(InvocationTracker.getInstance().getInvokedMethodMap().containsKey("org.foo.Task"));
+
+	    InvocationTracker.cleanUp();
+	    assertThat((String) instrumented.getMethod("supply", ExecutorService.class, Supplier.class).invoke(null, executor, supplier), is("supplied"));
+	    assertTrue(InvocationTracker.getInstance().getInvokedMethodMap().containsKey("org.foo.Task"));
+	} finally {
+	    executor.shutdown();
+	}
+    }
+
+    @Test
+    public void shouldTrackMethodsRunBeforeTheClassInitializer() throws Exception {
+	// probe arrays, self registering ids, self registering probe arrays
+	boolean[][] modes = { { true, false }, { false, true }, { true, true } };
+	for (boolean[] mode : modes) {
+	    ClassInstrumenter instrumenter = new ClassInstrumenter(mode[0], mode[1], false, 0, false);
+	    BytesClassLoader loader = new BytesClassLoader();
+	    loader.add(Parent.class.getName(), getBytes(Parent.class.getName()));
+	    loader.add(Child.class.getName(), instrument(Child.class.getName(), instrumenter));
+	    InvocationTracker.cleanUp();
+	    // initializing Child initializes Parent first, which creates a Child before the Child static initializer runs
+	    Class.forName(Child.class.getName(), true, loader);
+	    Map<String, Set<String>> map = InvocationTracker.getInstance().getInvokedMethodMap();
+	    assertTrue(map.get(Child.class.getCanonicalName()).contains(Child.class.getName() + "()"));
+	}
+	InvocationTracker.cleanUp();
+    }
+
+    @Test
+    public void shouldRegisterTheTypesByCanonicalName() throws Exception {
+	MethodRegistry registry = MethodRegistry.getInstance();
+	instrument(Service.class.getName(), new ClassInstrumenter(false, false, false, 0, false));
+	assertThat(Arrays.asList(registry.getSupertypes(Service.class.getCanonicalName())), is(Arrays.asList(Api.class.getCanonicalName())));
+	assertThat(registry.getSupertypes(Service.class.getName()), nullValue());
+    }
+
+    @Test
+    public void shouldRegisterTheTypesOfSelfRegisteringClasses() throws Exception {
+	MethodRegistry registry = MethodRegistry.getInstance();
+	String name = RegisteringService.class.getName();
+	byte[] bytes = instrument(name, new ClassInstrumenter(false, true, false, 0, false));
+	assertThat(registry.getSupertypes(RegisteringService.class.getCanonicalName()), nullValue());
+	// the types are registered when the class is initialized, the interfaces' ones included
+	new BytesClassLoader().define(name, bytes).getDeclaredConstructor().newInstance();
+	assertThat(Arrays.asList(registry.getSupertypes(RegisteringService.class.getCanonicalName())), is(Arrays.asList(Api.class.getCanonicalName())));
+	assertThat(Arrays.asList(registry.getSupertypes(Api.class.getCanonicalName())), is(Arrays.asList(Marker.class.getCanonicalName())));
+	assertThat(registry.getSupertypes(Marker.class.getCanonicalName()).length, is(0));
+    }
+
+    @Test
+    public void shouldInstrumentClassesUsingInvokeDynamic() throws Exception {
+	String name = Greeter.class.getName();
+	Class<?> instrumented = new BytesClassLoader().define(name, instrument(name, new ClassInstrumenter(false, false, false, 0, false)));
+	InvocationTracker.cleanUp();
+	Object greeter = instrumented.getDeclaredConstructor().newInstance();
+	assertThat((String) instrumented.getMethod("greet", String.class).invoke(greeter, "Bob"), is("Hello Bob!"));
+	assertTrue(InvocationTracker.getInstance().getInvokedMethodMap().get(Greeter.class.getCanonicalName()).contains(name + ".greet(java.lang.String)"));
+	InvocationTracker.cleanUp();
+    }
+
+    @Test
+    public void shouldListTheTypesTheInstrumentedBytecodeDependsOn() throws Exception {
+	ClassInstrumenter instrumenter = new ClassInstrumenter(false, true, false, 0, true);
+	Set<String> types = instrumenter.getReferencedTypes(getBytes(RegisteringService.class.getName()));
+	assertThat(types.size(), is(1));
+	assertTrue(types.contains(Api.class.getName()));
+	// the executors the tasks are submitted to are JVM ones
+	assertTrue(instrumenter.getReferencedTypes(getBytes(SUBMITTER)).isEmpty());
+    }
+
+    private static byte[] instrument(String className, ClassInstrumenter instrumenter) throws Exception {
+	ClassPool pool = new ClassPools(1).get(ClassInstrumenterTest.class.getClassLoader());
+	return instrumenter.instrument(pool, className.replace('.', '/'), getBytes(className));
+    }
+
+    private static byte[] getBytes(String className) throws Exception {
+	ClassPool pool = new ClassPools(1).get(ClassInstrumenterTest.class.getClassLoader());
+	CtClass original = pool.get(className);
+	byte[] bytes = original.toBytecode();
+	original.detach();
+	return bytes;
+    }
+
+    /**
+     * Instruments Bean and returns the long names of the methods containing a
+     * probe
+     */
+    private static Set<String> getProbedMethods(int skip) throws Exception {
+	byte[] instrumented = instrument(BEAN, new ClassInstrumenter(false, false, false, skip, false));
+	ClassPool pool = new ClassPools(1).get(ClassInstrumenterTest.class.getClassLoader());
+	CtClass cl = pool.makeClass(new ByteArrayInputStream(instrumented));
+	final Set<String> probed = new HashSet<String>();
+	for (final CtBehavior m : cl.getDeclaredBehaviors()) {
+	    m.instrument(new ExprEditor() {
+		@Override
+		public void edit(MethodCall call) {
+		    if ("addInvokedMethod".equals(call.getMethodName())) {
+			probed.add(m.getLongName());
+		    }
+		}
+	    });
+	}
+	cl.detach();
+	return probed;
+    }
+
+    public interface Marker {
+    }
+
+    public interface Api extends Marker {
+    }
+
+    public static class Service implements Api {
+    }
+
+    public static class RegisteringService implements Api {
+    }
+
+    public static class Greeter {
+	public String greet(String name) {
+	    // a lambda and a string concatenation, both compiled to invokedynamic
+	    Supplier<String> greeting = () -> "Hello " + name;
+	    return greeting.get() + "!";
+	}
+    }
+
+    public static class Parent {
+	static final Parent DEFAULT = new Child();
+    }
+
+    public static class Child extends Parent {
+    }
+
+    /**
+     * A class loader defining the provided classes, which are loaded in place
+     * of the test class loader ones
+     */
+    private static class BytesClassLoader extends ClassLoader {
+
+	private final Map<String, byte[]> classes = new HashMap<String, byte[]>();
+
+	public BytesClassLoader() {
+	    super(ClassInstrumenterTest.class.getClassLoader());
+	}
+
+	public Class<?> define(String name, byte[] bytes) {
+	    return defineClass(name, bytes, 0, bytes.length);
+	}
+
+	public void add(String name, byte[] bytes) {
+	    classes.put(name, bytes);
+	}
+
+	@Override
+	protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+	    byte[] bytes = classes.remove(name);
+	    return bytes != null ? define(name, bytes) : super.loadClass(name, resolve);
+	}
+    }
+}
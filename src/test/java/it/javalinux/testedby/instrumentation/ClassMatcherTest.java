@@ -0,0 +1,100 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import it.javalinux.testedby.metadata.impl.Helper;
+
+import org.junit.Test;
+
+/**
+ * Tests for the compiled instrumentation rules
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class ClassMatcherTest {
+
+    @Test
+    public void shouldNeverMatchJVMAndRestrictedClasses() throws Exception {
+	ClassMatcher matcher = new ClassMatcher(new String[] { "java/", "it/" }, null, null);
+	assertFalse(matcher.matches("java/lang/String"));
+	assertFalse(matcher.matches("jdk/internal/misc/Unsafe"));
+	assertFalse(matcher.matches("it/javalinux/testedby/metadata/MyClass"));
+	assertFalse(matcher.matches("it.javalinux.testedby.runner.MyClass"));
+	assertTrue(matcher.matches("it/javalinux/MyClass"));
+	assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void shouldNeverMatchTheAgentDependencies() throws Exception {
+	ClassMatcher matcher = new ClassMatcher(null, null, null);
+	assertFalse(matcher.matches("com/sun/jmx/mbeanserver/JmxMBeanServer"));
+	assertFalse(matcher.matches("com/sun/management/internal/HotSpotDiagnostic"));
+	assertTrue(matcher.matches("com/sun/proxy/$Proxy12"));
+	// the agent dependencies are not JVM classes for the metadata
+	assertFalse(Helper.isInJVMPackage("com.sun.jmx.mbeanserver.JmxMBeanServer"));
+    }
+
+    @Test
+    public void shouldPreferTheLongestMatchingRule() throws Exception {
+	ClassMatcher matcher = new ClassMatcher(new String[] { "org/foo/", "org/foo/bar/baz/" }, new String[] { "org/foo/bar/", "org/foo/bar/baz/" }, null);
+	assertTrue(matcher.matches("org/foo/MyClass"));
+	assertTrue(matcher.matches("org/foo/other/MyClass"));
+	assertFalse(matcher.matches("org/foo/bar/MyClass"));
+	assertFalse(matcher.matches("org/foo/bar/baz/MyClass")); // exclusion wins on a tie
+	assertFalse(matcher.matches("org/other/MyClass"));
+	assertFalse(matcher.matches("MyClass"));
+	matcher = new ClassMatcher(null, new String[] { "org/foo/" }, null);
+	assertFalse(matcher.matches("org/foo/MyClass"));
+	assertTrue(matcher.matches("org/other/MyClass"));
+	assertTrue(matcher.matches("MyClass"));
+    }
+
+    @Test
+    public void shouldSupportWildcards() throws Exception {
+	ClassMatcher matcher = new ClassMatcher(new String[] { "org/*/impl/", "com/**/internal/" }, new String[] { "org/foo*/" }, null);
+	assertTrue(matcher.matches("org/bar/impl/MyClass"));
+	assertTrue(matcher.matches("org/bar/impl/sub/MyClass"));
+	assertFalse(matcher.matches("org/bar/sub/impl/MyClass"));
+	assertFalse(matcher.matches("org/bar/MyClass"));
+	assertTrue(matcher.matches("org/foo/impl/MyClass")); // the inclusion is longer
+	assertFalse(matcher.matches("org/foobar/MyClass"));
+	assertTrue(matcher.matches("com/acme/internal/MyClass"));
+	assertTrue(matcher.matches("com/acme/a/b/internal/MyClass"));
+	assertFalse(matcher.matches("com/acme/MyClass"));
+    }
+
+    @Test
+    public void shouldExcludeClassesByNameFragment() throws Exception {
+	ClassMatcher matcher = new ClassMatcher(null, null, new String[] { "$Proxy", "Test*Helper" });
+	assertFalse(matcher.matches("com/sun/proxy/$Proxy12"));
+	assertFalse(matcher.matches("org/foo/MyTestHelper"));
+	assertFalse(matcher.matches("org/foo/MyTestDataHelper$1"));
+	assertTrue(matcher.matches("org/foo/MyTest"));
+	// the package decision is cached, classes are still checked one by one
+	assertTrue(matcher.matches("org/foo/MyHelper"));
+	assertFalse(matcher.matches("org/foo/$Proxy1"));
+    }
+}
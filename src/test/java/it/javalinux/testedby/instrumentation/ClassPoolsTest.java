@@ -0,0 +1,97 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import it.javalinux.testedby.testsupport.instrumentation.Foo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import javassist.ClassPool;
+
+import org.junit.Test;
+
+/**
+ * Tests for the per class loader javassist pools
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class ClassPoolsTest {
+
+    @Test
+    public void shouldUseOnePoolPerClassLoader() throws Exception {
+	ClassPools pools = new ClassPools(10);
+	ClassLoader loader = new URLClassLoader(new URL[0]);
+	ClassPool pool = pools.get(loader);
+	assertSame(pool, pools.get(loader));
+	assertNotSame(pool, pools.get(new URLClassLoader(new URL[0])));
+	assertNotSame(pool, pools.get(null));
+	assertSame(pools.get(null), pools.get(null));
+	assertThat(pools.size(), is(3));
+    }
+
+    @Test
+    public void shouldReplacePoolsAfterMaxUses() throws Exception {
+	ClassPools pools = new ClassPools(2);
+	ClassLoader loader = new URLClassLoader(new URL[0]);
+	ClassPool pool = pools.get(loader);
+	assertSame(pool, pools.get(loader));
+	assertNotSame(pool, pools.get(loader));
+	assertThat(pools.size(), is(1));
+    }
+
+    @Test
+    public void shouldLookupClassesThroughTheClassLoader() throws Exception {
+	// a class that only a child loader can see...
+	File dir = File.createTempFile("pools", "");
+	dir.delete();
+	String path = "child/" + Foo.class.getSimpleName() + ".class";
+	File target = new File(dir, path);
+	target.getParentFile().mkdirs();
+	InputStream is = ClassPoolsTest.class.getClassLoader().getResourceAsStream(Foo.class.getName().replace('.', '/') + ".class");
+	OutputStream os = new FileOutputStream(target);
+	byte[] buffer = new byte[4096];
+	int n;
+	while ((n = is.read(buffer)) != -1) {
+	    os.write(buffer, 0, n);
+	}
+	is.close();
+	os.close();
+	ClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() });
+
+	ClassPools pools = new ClassPools(10);
+	assertNotNull(pools.get(loader).find("child." + Foo.class.getSimpleName()));
+	assertNotNull(pools.get(loader).get("it.javalinux.testedby.metadata.builder.instrumentation.InvocationTracker"));
+	assertNotNull(pools.get(null).get("it.javalinux.testedby.metadata.builder.instrumentation.InvocationTracker"));
+    }
+}
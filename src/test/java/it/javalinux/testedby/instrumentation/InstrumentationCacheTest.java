@@ -0,0 +1,116 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+
+import org.junit.Test;
+
+/**
+ * Instrumentation cache test
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class InstrumentationCacheTest {
+
+    private static final byte[] ORIGINAL = new byte[] { 1, 2, 3 };
+    private static final byte[] INSTRUMENTED = new byte[] { 1, 2, 3, 4 };
+    private static final List<String> NO_TYPES = Collections.emptyList();
+
+    @Test
+    public void shouldReturnCachedBytecode() throws Exception {
+	File dir = createTempDir();
+	InstrumentationCache cache = new InstrumentationCache(dir, "conf");
+	String key = getKey(cache);
+	assertNull(cache.get(key));
+	cache.put(key, INSTRUMENTED);
+	assertArrayEquals(INSTRUMENTED, cache.get(key));
+	assertThat(cache.getHits(), is(1L));
+	assertThat(cache.getMisses(), is(1L));
+
+	// the cache is persistent...
+	cache = new InstrumentationCache(dir, "conf");
+	assertArrayEquals(INSTRUMENTED, cache.get(getKey(cache)));
+    }
+
+    @Test
+    public void shouldKeyEntriesOnConfigurationToo() throws Exception {
+	File dir = createTempDir();
+	InstrumentationCache cache = new InstrumentationCache(dir, "conf");
+	InstrumentationCache otherCache = new InstrumentationCache(dir, "otherConf");
+	assertThat(getKey(cache), is(getKey(cache)));
+	assertThat(getKey(cache), not(getKey(otherCache)));
+	cache.put(getKey(cache), INSTRUMENTED);
+	assertNull(otherCache.get(getKey(otherCache)));
+    }
+
+    @Test
+    public void shouldKeyEntriesOnTheHierarchyOfTheReferencedTypes() throws Exception {
+	File dir = createTempDir();
+	InstrumentationCache cache = new InstrumentationCache(createTempDir(), "conf");
+	List<String> types = Arrays.asList("org.foo.Base");
+	ClassPool pool = new ClassPool(true);
+	pool.appendClassPath(dir.getPath());
+	String missing = cache.getKey(ORIGINAL, pool, types);
+	writeInterface(dir, "org.foo.Ancestor", null);
+	writeInterface(dir, "org.foo.Base", "org.foo.Ancestor");
+	String resolved = cache.getKey(ORIGINAL, pool, types);
+	assertThat(resolved, not(missing));
+	assertThat(cache.getKey(ORIGINAL, pool, types), is(resolved));
+	// the key changes along with any ancestor of the referenced types
+	writeInterface(dir, "org.foo.Marker", null);
+	writeInterface(dir, "org.foo.Ancestor", "org.foo.Marker");
+	assertThat(cache.getKey(ORIGINAL, pool, types), not(resolved));
+    }
+
+    private static String getKey(InstrumentationCache cache) {
+	return cache.getKey(ORIGINAL, ClassPool.getDefault(), NO_TYPES);
+    }
+
+    private static void writeInterface(File dir, String name, String superinterface) throws Exception {
+	ClassPool pool = new ClassPool(true);
+	CtClass cl = pool.makeInterface(name);
+	if (superinterface != null) {
+	    cl.addInterface(pool.makeInterface(superinterface));
+	}
+	cl.writeFile(dir.getPath());
+    }
+
+    private static File createTempDir() throws Exception {
+	File dir = File.createTempFile("cache", "");
+	dir.delete();
+	return dir;
+    }
+}
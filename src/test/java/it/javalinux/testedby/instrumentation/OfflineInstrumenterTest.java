@@ -0,0 +1,151 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import it.javalinux.testedby.metadata.builder.instrumentation.InvocationTracker;
+import it.javalinux.testedby.testsupport.instrumentation.Foo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Offline instrumentation test
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class OfflineInstrumenterTest {
+
+    private static final String FOO = Foo.class.getName();
+
+    @Test
+    public void shouldInstrumentClassesOnlyOnce() throws Exception {
+	File dir = copyFooClass();
+	OfflineInstrumenter instrumenter = new OfflineInstrumenter(null);
+	assertThat(instrumenter.instrument(dir), is(1));
+	assertThat(instrumenter.instrument(dir), is(0));
+    }
+
+    @Test
+    public void shouldTrackInvocationsWithSelfRegisteringClasses() throws Exception {
+	assertFooInvocationsAreTracked(null);
+    }
+
+    @Test
+    public void shouldTrackInvocationsWithSelfRegisteringProbeArrays() throws Exception {
+	assertFooInvocationsAreTracked("probes=array");
+    }
+
+    @Test
+    public void shouldTrackClassesWithClassGranularity() throws Exception {
+	for (String arguments : new String[] { "granularity=class", "granularity=class#probes=array" }) {
+	    File dir = copyFooClass();
+	    new OfflineInstrumenter(arguments).instrument(dir);
+	    Class<?> clazz = new FooClassLoader(dir).loadClass(FOO);
+	    InvocationTracker.cleanUp();
+	    clazz.getMethod("bar").invoke(clazz.getDeclaredConstructor().newInstance());
+	    Map<String, Set<String>> map = InvocationTracker.getInstance().getInvokedMethodMap();
+	    assertThat(map.size(), is(1));
+	    assertTrue(map.get(FOO).isEmpty());
+	}
+	// the agent configuration is not affected
+	assertFalse(Agent.configuration.classGranularity);
+    }
+
+    private static void assertFooInvocationsAreTracked(String arguments) throws Exception {
+	File dir = copyFooClass();
+	new OfflineInstrumenter(arguments).instrument(dir);
+	Class<?> clazz = new FooClassLoader(dir).loadClass(FOO);
+	InvocationTracker.cleanUp();
+	clazz.getMethod("bar").invoke(clazz.getDeclaredConstructor().newInstance());
+	Map<String, Set<String>> map = InvocationTracker.getInstance().getInvokedMethodMap();
+	assertThat(map.size(), is(1));
+	assertThat(map.get(FOO).size(), is(2));
+	assertTrue(map.get(FOO).contains(FOO + ".bar()"));
+	assertTrue(map.get(FOO).contains(FOO + "()"));
+    }
+
+    private static File copyFooClass() throws Exception {
+	File dir = File.createTempFile("offline", "");
+	dir.delete();
+	String path = FOO.replace('.', '/') + ".class";
+	File target = new File(dir, path);
+	target.getParentFile().mkdirs();
+	InputStream is = OfflineInstrumenterTest.class.getClassLoader().getResourceAsStream(path);
+	OutputStream os = new FileOutputStream(target);
+	byte[] buffer = new byte[4096];
+	int n;
+	while ((n = is.read(buffer)) != -1) {
+	    os.write(buffer, 0, n);
+	}
+	is.close();
+	os.close();
+	return dir;
+    }
+
+    /**
+     * A class loader defining Foo from the provided directory while delegating
+     * any other class to the test class loader.
+     */
+    private static class FooClassLoader extends ClassLoader {
+
+	private File dir;
+
+	public FooClassLoader(File dir) {
+	    super(OfflineInstrumenterTest.class.getClassLoader());
+	    this.dir = dir;
+	}
+
+	@Override
+	protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+	    if (!FOO.equals(name)) {
+		return super.loadClass(name, resolve);
+	    }
+	    Class<?> clazz = findLoadedClass(name);
+	    if (clazz == null) {
+		try {
+		    File file = new File(dir, name.replace('.', '/') + ".class");
+		    byte[] bytes = new byte[(int) file.length()];
+		    InputStream is = new FileInputStream(file);
+		    is.read(bytes);
+		    is.close();
+		    clazz = defineClass(name, bytes, 0, bytes.length);
+		} catch (Exception e) {
+		    throw new ClassNotFoundException(name, e);
+		}
+	    }
+	    return clazz;
+	}
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.instrumentation;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import it.javalinux.testedby.metadata.builder.instrumentation.InvocationTracker;
+import it.javalinux.testedby.testsupport.instrumentation.Foo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javassist.ClassPool;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+
+/**
+ * Switching tracking on and off at runtime through retransformation
+ * 
+ * Please note this need to run at integration-test phase (Maven) as it requires
+ * the project package jar for running the instrumentation.
+ * 
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ * 
+ */
+public class RetransformationTest {
+
+    private static Logger log = Logger.getLogger(RetransformationTest.class.getName());
+
+    @Test
+    public void testTrackingSwitch() throws Exception {
+	String command = "java -Xbootclasspath/a:" + getOwnJarPath() + ":" + getJUnitJarPath() + ":" + getJavassistJarPath() + " -javaagent:" + getOwnJarPath() + "=tracking=off -cp " + getTestClassesDir().getPath() + " " + RetransformationTest.class.getCanonicalName();
+	Process p = Runtime.getRuntime().exec(command);
+	int res = p.waitFor();
+
+	BufferedReader stdError = new BufferedReader(new InputStreamReader(p.getErrorStream()));
+	// read any errors from the attempted command
+	String t = null;
+	StringBuilder sb = new StringBuilder();
+	while ((t = stdError.readLine()) != null) {
+	    sb.append(t);
+	    sb.append("\n");
+	}
+	log.severe(sb.toString());
+
+	assertThat("The application run by this test did not exit as expected", res, is(0));
+    }
+
+    /**
+     * An helper main that is called through the testTrackingSwitch() method
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+	try {
+	    assertFalse(Agent.isTrackingEnabled());
+	    InvocationTracker.cleanUp();
+	    new Foo().bar();
+	    assertTrue(InvocationTracker.getInstance().getInvokedMethodMap().isEmpty());
+
+	    // Foo has already been loaded, hence it gets the probes through retransformation
+	    Agent.setTrackingEnabled(true);
+	    assertTrue(Agent.isTrackingEnabled());
+	    new Foo().bar();
+	    Map<String, Set<String>> map = InvocationTracker.getInstance().getInvokedMethodMap();
+	    assertThat(map.size(), is(1));
+	    assertThat(map.get(Foo.class.getName()).size(), is(2));
+
+	    // ...and gets its original bytecode back
+	    Agent.setTrackingEnabled(false);
+	    InvocationTracker.cleanUp();
+	    new Foo().bar();
+	    assertTrue(InvocationTracker.getInstance().getInvokedMethodMap().isEmpty());
+	} catch (Throwable t) {
+	    throw new RuntimeException(t);
+	}
+    }
+
+    private static String getJUnitJarPath() throws Exception {
+	return new File(JUnitCore.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    private static String getJavassistJarPath() throws Exception {
+	return new File(ClassPool.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    private static File getTestClassesDir() throws Exception {
+	return new File(Thread.currentThread().getContextClassLoader().getResource(".").toURI());
+    }
+
+    private static String getOwnJarPath() throws Exception {
+	File testClassesDir = getTestClassesDir();
+	File[] files = testClassesDir.getParentFile().listFiles(new FilenameFilter() {
+	    public boolean accept(File dir, String name) {
+		return (name.startsWith("TestedBy") && name.endsWith(".jar"));
+	    }
+	});
+	return files[0].getPath();
+    }
+}
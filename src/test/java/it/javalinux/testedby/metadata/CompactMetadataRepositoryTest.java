@@ -0,0 +1,144 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import it.javalinux.testedby.metadata.impl.CompactMetadataRepository;
+import it.javalinux.testedby.metadata.impl.ImmutableMethodMetadata;
+import it.javalinux.testedby.metadata.impl.MetadataRepository;
+import it.javalinux.testedby.testsupport.instrumentation.Foo;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the compact repository answers like the repository it is created from
+ * and the name based queries answer like the class based ones
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class CompactMetadataRepositoryTest {
+
+    private static final String TEST = CompactMetadataRepositoryTest.class.getCanonicalName();
+
+    private static final String FOO = Foo.class.getCanonicalName();
+
+    @Test
+    public void shouldAnswerLikeTheSourceRepository() throws Exception {
+	MetadataRepository repository = new MetadataRepository();
+	StatusMetadata passed = new StatusMetadata(true, true, false, true);
+	passed.setPassedOnLastRun(true);
+	passed.setInvocationCount(7).setWallTimeNanos(1000);
+	repository.addConnection(TEST, "shouldAnswerLikeTheSourceRepository", new String[] {}, FOO, "bar", new String[] {}, passed);
+	repository.addConnection(TEST, "myTestingMethod", new String[] { "java.lang.String" }, FOO, "bar", new String[] {}, new StatusMetadata(true, false, true, false));
+	repository.addConnection(TEST, "myTestingMethod", new String[] { "java.lang.String" }, FOO, null, null, new StatusMetadata(true, false, true, false));
+	repository.addConnection("org.foo.OtherTest", null, null, "org.foo.Other", "other", new String[] { "int" }, new StatusMetadata(false, false, true, false));
+
+	CompactMetadataRepository compact = new CompactMetadataRepository(repository);
+	assertThat(compact.getNodeCount(), is(6));
+	assertThat(compact.getLinkCount(), is(4));
+
+	Method test = CompactMetadataRepositoryTest.class.getMethod("shouldAnswerLikeTheSourceRepository");
+	Method testing = CompactMetadataRepositoryTest.class.getMethod("myTestingMethod", String.class);
+	Method bar = Foo.class.getMethod("bar");
+	assertSame(repository.getMethodsTestedBy(CompactMetadataRepositoryTest.class, test), compact.getMethodsTestedBy(CompactMetadataRepositoryTest.class, test));
+	assertSame(repository.getClassesTestedBy(CompactMetadataRepositoryTest.class, testing), compact.getClassesTestedBy(CompactMetadataRepositoryTest.class, testing));
+	assertSame(repository.getMethodsTestedBy(CompactMetadataRepositoryTest.class, true), compact.getMethodsTestedBy(CompactMetadataRepositoryTest.class, true));
+	assertSame(repository.getTestMethodsFor(Foo.class, bar), compact.getTestMethodsFor(Foo.class, bar));
+	assertSame(repository.getTestClassesFor(Foo.class, false), compact.getTestClassesFor(Foo.class, false));
+	assertSame(repository.getTestMethodsFor(Foo.class, true), compact.getTestMethodsFor(Foo.class, true));
+	assertSame(repository.getAllTestClasses(), compact.getAllTestClasses());
+	assertSame(repository.getAllTestMethods(), compact.getAllTestMethods());
+	assertSame(repository.getAllTestedClasses(), compact.getAllTestedClasses());
+	assertSame(repository.getAllTestedMethods(), compact.getAllTestedMethods());
+	assertThat(compact.getTestMethodsFor(Foo.class, true).size(), is(2));
+	assertTrue(compact.getMethodsTestedBy(String.class, true).isEmpty());
+
+	List<MethodLinkMetadata> hammering = compact.getTestMethodsHammering(Foo.class, bar, 1);
+	assertThat(hammering.size(), is(1));
+	StatusMetadata status = hammering.get(0).getStatus();
+	assertThat(hammering.get(0).getMethod().getName(), is("shouldAnswerLikeTheSourceRepository"));
+	assertTrue(status.isPassedOnLastRun());
+	assertThat(status.getInvocationCount(), is(7L));
+	assertThat(status.getWallTimeNanos(), is(1000L));
+	assertThat(status.getCpuTimeNanos(), is(-1L));
+	assertFalse(compact.merge(repository));
+    }
+
+    @Test
+    public void shouldAnswerNameBasedQueriesLikeClassBasedOnes() throws Exception {
+	MetadataRepository repository = new MetadataRepository();
+	StatusMetadata status = new StatusMetadata(true, false, true, false);
+	repository.addConnection(TEST, "myTestingMethod", new String[] { "java.lang.String" }, FOO, "bar", new String[] {}, status);
+	repository.addConnection(TEST, "otherTest", null, "org.foo.Parent", null, null, status);
+	repository.addType(FOO, new String[] { "org.foo.Parent" });
+	CompactMetadataRepository compact = new CompactMetadataRepository(repository);
+
+	Method testing = CompactMetadataRepositoryTest.class.getMethod("myTestingMethod", String.class);
+	MethodMetadata testingMetadata = new ImmutableMethodMetadata(TEST, "myTestingMethod", new String[] { "java.lang.String" });
+	MethodMetadata barMetadata = new ImmutableMethodMetadata(FOO, "bar", new String[] {});
+	Method bar = Foo.class.getMethod("bar");
+	for (TestsMetadata metadata : new TestsMetadata[] { repository, compact }) {
+	    assertSame(metadata.getClassesTestedBy(CompactMetadataRepositoryTest.class, true), metadata.getClassesTestedBy(TEST, true));
+	    assertSame(metadata.getMethodsTestedBy(CompactMetadataRepositoryTest.class, testing), metadata.getMethodsTestedBy(TEST, testingMetadata));
+	    assertSame(metadata.getMethodsTestedBy(CompactMetadataRepositoryTest.class, true), metadata.getMethodsTestedBy(TEST, true));
+	    assertSame(metadata.getTestClassesFor(Foo.class, bar), metadata.getTestClassesFor(FOO, barMetadata));
+	    assertSame(metadata.getTestClassesFor(Foo.class, true), metadata.getTestClassesFor(FOO, true));
+	    assertSame(metadata.getTestMethodsFor(Foo.class, bar), metadata.getTestMethodsFor(FOO, barMetadata));
+	    assertSame(metadata.getTestMethodsFor(Foo.class, true), metadata.getTestMethodsFor(FOO, true));
+	    assertSame(metadata.getTestMethodsForRecursive(Foo.class, false), metadata.getTestMethodsForRecursive(FOO, false));
+	    assertSame(metadata.getHottestMethodsTestedBy(CompactMetadataRepositoryTest.class, testing, 1), metadata.getHottestMethodsTestedBy(TEST, testingMetadata, 1));
+	    assertSame(metadata.getTestMethodsHammering(Foo.class, bar, 1), metadata.getTestMethodsHammering(FOO, barMetadata, 1));
+	    assertThat(metadata.getTestMethodsForRecursive(FOO, true).size(), is(2));
+	    assertThat(metadata.getTestMethodsFor(FOO, false).size(), is(0));
+	    assertTrue(metadata.getTestMethodsForRecursive("org.foo.Unknown", true).isEmpty());
+	}
+    }
+
+    public void myTestingMethod(String par) {
+	// NOOP
+    }
+
+    public void otherTest() {
+	// NOOP
+    }
+
+    private static void assertSame(List<? extends LinkMetadata> expected, List<? extends LinkMetadata> actual) {
+	assertThat(new HashSet<LinkMetadata>(actual), is(new HashSet<LinkMetadata>(expected)));
+	// class links are built from any link to the class, hence only method links statuses are compared
+	for (LinkMetadata link : actual) {
+	    for (LinkMetadata expectedLink : expected) {
+		if (link instanceof MethodLinkMetadata && expectedLink.equals(link)) {
+		    assertThat(link.getStatus(), is(expectedLink.getStatus()));
+		}
+	    }
+	}
+    }
+}
@@ -143,4 +143,41 @@ public class MergingTest {
 	assertThat(repository1.getAllTestedMethods().size(), is(2));
 	// TODO: provide better assertion controls
     }
+
+    @Test
+    public void shouldShareSymbolsOfMergedTestMetadata() {
+	MetadataRepository repository1 = new MetadataRepository();
+	MetadataRepository repository2 = new MetadataRepository();
+	StatusMetadata status = new StatusMetadata(true, true, false, true);
+
+	// same links, added in different order
+	repository1.addConnection("it.javalinux.FooTest", "testMethodOne", new String[] {}, "it.javalinux.Foo", "methodUTOne", new String[] { "int" }, status);
+	repository1.addConnection("it.javalinux.BarTest", "testMethodOne", new String[] {}, "it.javalinux.Bar", "methodUTOne", new String[] { "int" }, status);
+	repository2.addConnection(new String("it.javalinux.BarTest"), "testMethodOne", new String[] {}, "it.javalinux.Bar", "methodUTOne", new String[] { "int" }, status);
+	repository2.addConnection(new String("it.javalinux.FooTest"), "testMethodOne", new String[] {}, "it.javalinux.Foo", "methodUTOne", new String[] { "int" }, status);
+	assertTrue(repository1.equals(repository2));
+	assertThat(repository1.hashCode(), is(repository2.hashCode()));
+
+	repository1.addConnection("it.javalinux.FooTest", "testMethodTwo", new String[] {}, "it.javalinux.Foo", "methodUTOne", new String[] { "int" }, status);
+	assertFalse(repository1.equals(repository2));
+	repository2.merge(repository1);
+	assertTrue(repository1.equals(repository2));
+
+	// links to the same class share the same names and method metadata
+	List<MethodLinkMetadata> tests = repository2.getAllTestMethods();
+	assertThat(tests.size(), is(3));
+	MethodLinkMetadata first = null;
+	for (MethodLinkMetadata test : tests) {
+	    if (test.getClazz().equals("it.javalinux.FooTest")) {
+		if (first == null) {
+		    first = test;
+		} else {
+		    assertTrue(first.getClazz() == test.getClazz());
+		}
+	    }
+	}
+	List<MethodLinkMetadata> tested = repository2.getAllTestedMethods();
+	assertThat(tested.size(), is(2));
+	assertTrue(tested.get(0).getMethod().getParameterTypes()[0] == tested.get(1).getMethod().getParameterTypes()[0]);
+    }
 }
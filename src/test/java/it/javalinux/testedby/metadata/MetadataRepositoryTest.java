@@ -0,0 +1,159 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import it.javalinux.testedby.metadata.impl.MetadataRepository;
+import it.javalinux.testedby.testsupport.instrumentation.Foo;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests the repository can be used by multiple threads and the queries on
+ * recorded types
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class MetadataRepositoryTest {
+
+    private static final String TEST = MetadataRepositoryTest.class.getCanonicalName();
+
+    private static final String FOO = Foo.class.getCanonicalName();
+
+    private static final int THREADS = 8;
+
+    private static final int TESTS = 500;
+
+    @Test
+    public void shouldAddConnectionsConcurrently() throws Exception {
+	final MetadataRepository repository = new MetadataRepository();
+	final CyclicBarrier barrier = new CyclicBarrier(THREADS + 1);
+	final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	Thread[] threads = new Thread[THREADS];
+	for (int t = 0; t < THREADS; t++) {
+	    final int n = t;
+	    threads[t] = new Thread() {
+		@Override
+		public void run() {
+		    try {
+			barrier.await();
+			for (int i = 0; i < TESTS; i++) {
+			    StatusMetadata status = new StatusMetadata(true, false, false, true);
+			    if (n % 2 == 0) {
+				repository.addConnection("org.foo.Test" + n, "test" + i, null, FOO, "bar", null, status);
+			    } else {
+				// the other threads merge their links through other repositories
+				MetadataRepository right = new MetadataRepository();
+				right.addConnection("org.foo.Test" + n, "test" + i, null, FOO, "bar", null, status);
+				repository.merge(right);
+			    }
+			}
+		    } catch (Throwable e) {
+			failure.set(e);
+		    }
+		}
+	    };
+	    threads[t].start();
+	}
+	barrier.await();
+	// queries can run while links are added
+	while (isAlive(threads)) {
+	    repository.getTestMethodsFor(Foo.class, Foo.class.getMethod("bar"));
+	    repository.getAllTestedClasses();
+	}
+	if (failure.get() != null) {
+	    throw new AssertionError(failure.get());
+	}
+	assertThat(repository.getTestMethodsFor(Foo.class, Foo.class.getMethod("bar")).size(), is(THREADS * TESTS));
+	assertThat(repository.getAllTestClasses().size(), is(THREADS));
+	assertThat(repository.getAllTestedMethods().size(), is(1));
+    }
+
+    @Test
+    public void queriesShouldNotModifyTheRepository() throws Exception {
+	MetadataRepository repository = new MetadataRepository();
+	StatusMetadata status = new StatusMetadata(true, false, false, true);
+	repository.addConnection(TEST, null, null, FOO, "bar", null, status);
+	repository.addConnection(TEST, "queriesShouldNotModifyTheRepository", null, "org.foo.Other", "other", null, status);
+	repository.addConnection("org.foo.OtherTest", "test", null, FOO, null, null, status);
+	assertThat(repository.getMethodsTestedBy(MetadataRepositoryTest.class, true).size(), is(2));
+	assertThat(repository.getMethodsTestedBy(MetadataRepositoryTest.class, false).size(), is(1));
+	assertThat(repository.getTestClassesFor(Foo.class, true).size(), is(2));
+	assertThat(repository.getTestClassesFor(Foo.class, false).size(), is(1));
+	assertThat(repository.getTestMethodsForRecursive(Foo.class, true).size(), is(1));
+	// nothing is linked to the class and its interfaces
+	assertThat(repository.getTestMethodsForRecursive(String.class, false).size(), is(0));
+    }
+
+    @Test
+    public void toStringShouldPrintTheNames() throws Exception {
+	MetadataRepository repository = new MetadataRepository();
+	repository.addConnection(TEST, "test", null, FOO, "bar", new String[] { "int" }, new StatusMetadata(true, false, false, true));
+	String string = repository.toString();
+	assertTrue(string.contains("MethodInfo [classRef=" + FOO + ", methodRef=bar[int]]"));
+	assertTrue(string.contains("MethodInfo [classRef=" + TEST + ", methodRef=test[]]"));
+    }
+
+    @Test
+    public void recursiveQueriesShouldUseTheRecordedTypes() throws Exception {
+	MetadataRepository repository = new MetadataRepository();
+	StatusMetadata status = new StatusMetadata(true, false, false, true);
+	repository.addConnection(TEST, "test", null, "org.foo.Parent", "parent", null, status);
+	repository.addConnection(TEST, "otherTest", null, "org.foo.Service", null, null, status);
+	repository.addConnection(TEST, "helperTest", null, FOO, "helper", new String[] { "int" }, status);
+	// the recorded hierarchy is used in place of the loaded class one
+	assertFalse(repository.hasType(FOO));
+	repository.addType(FOO, new String[] { "org.foo.Parent" });
+	repository.addType("org.foo.Parent", new String[] { "org.foo.Service" });
+	repository.addType("org.foo.Service", new String[] {});
+	assertTrue(repository.hasType(FOO));
+	assertThat(repository.getTestMethodsForRecursive(Foo.class, false).size(), is(1));
+	assertThat(repository.getTestMethodsForRecursive(FOO, true).size(), is(3));
+	// the public methods of a loaded class only are included, while every linked method is by class name
+	assertThat(repository.getTestMethodsFor(Foo.class, true).size(), is(0));
+	assertThat(repository.getTestMethodsFor(FOO, true).size(), is(1));
+	assertThat(repository.getTestClassesFor(Foo.class, false).size(), is(0));
+
+	// the recorded types are merged
+	MetadataRepository merged = new MetadataRepository();
+	merged.merge(repository);
+	assertTrue(merged.hasType("org.foo.Parent"));
+	assertThat(merged.getTestMethodsForRecursive(FOO, true).size(), is(3));
+    }
+
+    private static boolean isAlive(Thread[] threads) {
+	for (Thread t : threads) {
+	    if (t.isAlive()) {
+		return true;
+	    }
+	}
+	return false;
+    }
+}
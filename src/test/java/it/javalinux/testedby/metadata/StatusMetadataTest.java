@@ -65,6 +65,43 @@ public class StatusMetadataTest {
 	assertThat(left.merge(right), is(true));
 	assertThat(left.isFailedOnLastRun(), is(true));
     }
-    
+
+    @Test
+    public void mergeShouldKeepTheMeasuresOfTheLastMeasuredRun() throws Exception {
+	StatusMetadata left = new StatusMetadata(true, true, true, true);
+	left.setWallTimeNanos(100).setCpuTimeNanos(50).setAllocatedBytes(1024);
+	Thread.currentThread().sleep(1);
+	StatusMetadata right = new StatusMetadata(true, true, true, true);
+	assertThat(right.isMeasured(), is(false));
+	// the newer status has no measures (e.g. it comes from annotations)
+	assertThat(left.merge(right), is(true));
+	assertThat(left.getWallTimeNanos(), is(100L));
+	right.setWallTimeNanos(200).setCpuTimeNanos(-1).setAllocatedBytes(2048);
+	assertThat(left.merge(right), is(true));
+	assertThat(left.getWallTimeNanos(), is(200L));
+	assertThat(left.getCpuTimeNanos(), is(-1L));
+	assertThat(left.getAllocatedBytes(), is(2048L));
+	StatusMetadata clone = (StatusMetadata) left.clone();
+	assertThat(clone.getAllocatedBytes(), is(2048L));
+    }
+
+    @Test
+    public void mergeShouldKeepTheCountOfTheLastCountedRun() throws Exception {
+	StatusMetadata left = new StatusMetadata(true, true, true, true);
+	left.setInvocationCount(3);
+	Thread.currentThread().sleep(1);
+	StatusMetadata right = new StatusMetadata(true, true, true, true);
+	assertThat(right.isCounted(), is(false));
+	// the newer status has no count (e.g. it comes from annotations)
+	assertThat(left.merge(right), is(true));
+	assertThat(left.getInvocationCount(), is(3L));
+	right.setInvocationCount(5);
+	assertThat(left.merge(right), is(true));
+	assertThat(left.getInvocationCount(), is(5L));
+	// the count is filled in from an older status too, when missing
+	StatusMetadata newer = new StatusMetadata(true, true, true, true);
+	assertThat(newer.merge(left), is(true));
+	assertThat(newer.getInvocationCount(), is(5L));
+    }
 
 }
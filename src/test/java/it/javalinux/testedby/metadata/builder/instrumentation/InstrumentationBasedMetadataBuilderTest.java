@@ -23,6 +23,7 @@ package it.javalinux.testedby.metadata.builder.instrumentation;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.matchers.JUnitMatchers.hasItem;
 
 import it.javalinux.testedby.metadata.ClassLinkMetadata;
@@ -32,6 +33,7 @@ import it.javalinux.testedby.metadata.StatusMetadata;
 import it.javalinux.testedby.metadata.TestsMetadata;
 import it.javalinux.testedby.metadata.impl.ImmutableMethodMetadata;
 
+import java.util.BitSet;
 import java.util.List;
 
 import org.junit.Test;
@@ -167,6 +169,162 @@ public class InstrumentationBasedMetadataBuilderTest {
 	assertThat(methodsTestsFoo.size(), is(0));
     }
     
+    @Test
+    public void testBuilderResolvesRegisteredMethodIds() throws Exception
+    {
+	//the agent registers the methods when instrumenting and then only tracks their ids...
+	int echoId = MethodRegistry.getInstance().register(Foo.class.getCanonicalName(), Foo.class.getCanonicalName() + ".echo(java.lang.String)");
+	int myTestingMethodId = MethodRegistry.getInstance().register(InstrumentationBasedMetadataBuilderTest.class.getCanonicalName(), InstrumentationBasedMetadataBuilderTest.class.getCanonicalName() + ".myTestingMethod(java.lang.String)");
+	assertThat(MethodRegistry.getInstance().register(Foo.class.getCanonicalName(), Foo.class.getCanonicalName() + ".echo(java.lang.String)"), is(echoId));
+	InvocationTracker.cleanUp();
+	InvocationTracker tracker = InvocationTracker.getInstance();
+	tracker.setTestClass(InstrumentationBasedMetadataBuilderTest.class.getCanonicalName());
+	tracker.setSkipTestClass(true);
+	tracker.addInvokedMethod(myTestingMethodId);
+	tracker.addInvokedMethod(echoId);
+	tracker.addInvokedMethod(echoId);
+	InstrumentationBasedMetadataBuilder builder = new InstrumentationBasedMetadataBuilder();
+	builder.performBuildStep(InstrumentationBasedMetadataBuilderTest.class, InstrumentationBasedMetadataBuilderTest.class.getMethod("myTestingMethod", String.class));
+	TestsMetadata metadata = builder.getMetadata();
+	List<MethodLinkMetadata> methodsTestedBy = metadata.getMethodsTestedBy(InstrumentationBasedMetadataBuilderTest.class, InstrumentationBasedMetadataBuilderTest.class.getMethod("myTestingMethod", String.class));
+	assertThat(methodsTestedBy.size(), is(1));
+	assertThat(methodsTestedBy, hasItem(ECHO_METHOD_OF_FOO_CLASS_MD));
+    }
+    
+    @Test
+    public void testBuilderLinksClassesTrackedAsAWhole() throws Exception
+    {
+	int fooId = MethodRegistry.getInstance().register(Foo.class.getCanonicalName(), (String) null);
+	InvocationTracker.cleanUp();
+	InvocationTracker.getInstance().addInvokedMethod(fooId);
+	assertTrue(InvocationTracker.getInstance().getInvokedMethodMap().get(Foo.class.getCanonicalName()).isEmpty());
+	InstrumentationBasedMetadataBuilder builder = new InstrumentationBasedMetadataBuilder();
+	builder.performBuildStep(InstrumentationBasedMetadataBuilderTest.class, InstrumentationBasedMetadataBuilderTest.class.getMethod("myTestingMethod", String.class));
+	TestsMetadata metadata = builder.getMetadata();
+	List<ClassLinkMetadata> classesTestedBy = metadata.getClassesTestedBy(InstrumentationBasedMetadataBuilderTest.class, InstrumentationBasedMetadataBuilderTest.class.getMethod("myTestingMethod", String.class));
+	assertThat(classesTestedBy.size(), is(1));
+	assertThat(classesTestedBy, hasItem(FOO_CLASS_MD));
+	assertTrue(metadata.getMethodsTestedBy(InstrumentationBasedMetadataBuilderTest.class, InstrumentationBasedMetadataBuilderTest.class.getMethod("myTestingMethod", String.class)).isEmpty());
+    }
+    
+    @Test
+    public void testTrackerStats() throws Exception
+    {
+	int echoId = MethodRegistry.getInstance().register(Foo.class.getCanonicalName(), Foo.class.getCanonicalName() + ".echo(java.lang.String)");
+	int fooId = MethodRegistry.getInstance().register(Foo.class.getCanonicalName(), Foo.class.getCanonicalName() + "()");
+	TrackerStats stats = TrackerStats.getInstance();
+	stats.reset();
+	InvocationTracker.cleanUp();
+	InvocationTracker tracker = InvocationTracker.getInstance();
+	tracker.setTestClass(InstrumentationBasedMetadataBuilderTest.class.getCanonicalName());
+	tracker.setTestMethod("myTestingMethod");
+	tracker.addInvokedMethod(fooId);
+	tracker.addInvokedMethod(echoId);
+	tracker.addInvokedMethod(echoId);
+	tracker.getInvokedMethodMap();
+	assertThat(stats.getTestsTracked(), is(1L));
+	assertThat(stats.getProbeCalls(), is(3L));
+	assertThat(stats.getLastTest(), is(InstrumentationBasedMetadataBuilderTest.class.getCanonicalName() + "#myTestingMethod"));
+	assertThat(stats.getLastTestDistinctMethods(), is(2));
+	assertThat(stats.getMaxDistinctMethods(), is(2));
+	assertTrue(stats.getRegisteredMethods() >= 2);
+    }
+    
+    @Test
+    public void testHottestMethods() throws Exception
+    {
+	int echoId = MethodRegistry.getInstance().register(Foo.class.getCanonicalName(), Foo.class.getCanonicalName() + ".echo(java.lang.String)");
+	int pingId = MethodRegistry.getInstance().register(Foo.class.getCanonicalName(), Foo.class.getCanonicalName() + ".ping()");
+	InstrumentationBasedMetadataBuilder builder = new InstrumentationBasedMetadataBuilder();
+	InvocationTracker.setCounting(true);
+	try {
+	    InvocationTracker.cleanUp();
+	    InvocationTracker tracker = InvocationTracker.getInstance();
+	    tracker.addInvokedMethod(echoId);
+	    for (int i = 0; i < 5; i++) {
+		tracker.addInvokedMethod(pingId);
+	    }
+	    assertThat(tracker.getInvocationCount(pingId), is(5L));
+	    builder.performBuildStep(InstrumentationBasedMetadataBuilderTest.class, InstrumentationBasedMetadataBuilderTest.class.getMethod("myTestingMethod", String.class));
+	    tracker = InvocationTracker.getInstance();
+	    for (int i = 0; i < 3; i++) {
+		tracker.addInvokedMethod(echoId);
+	    }
+	    builder.performBuildStep(InstrumentationBasedMetadataBuilderTest.class, InstrumentationBasedMetadataBuilderTest.class.getMethod("anotherTestingMethod", String.class));
+	} finally {
+	    InvocationTracker.setCounting(false);
+	    InvocationTracker.cleanUp();
+	}
+	TestsMetadata metadata = builder.getMetadata();
+	List<MethodLinkMetadata> hottest = metadata.getHottestMethodsTestedBy(InstrumentationBasedMetadataBuilderTest.class, InstrumentationBasedMetadataBuilderTest.class.getMethod("myTestingMethod", String.class), 1);
+	assertThat(hottest.size(), is(1));
+	assertThat(hottest.get(0).getMethod().getName(), is("ping"));
+	assertThat(hottest.get(0).getStatus().getInvocationCount(), is(5L));
+	List<MethodLinkMetadata> hammering = metadata.getTestMethodsHammering(Foo.class, Foo.class.getMethod("echo", String.class), 10);
+	assertThat(hammering.size(), is(2));
+	assertThat(hammering.get(0).getMethod().getName(), is("anotherTestingMethod"));
+	assertThat(hammering.get(1).getStatus().getInvocationCount(), is(1L));
+    }
+    
+    @Test
+    public void testPipelinedBuildSteps() throws Exception
+    {
+	int echoId = MethodRegistry.getInstance().register(Foo.class.getCanonicalName(), Foo.class.getCanonicalName() + ".echo(java.lang.String)");
+	int pingId = MethodRegistry.getInstance().register(Foo.class.getCanonicalName(), Foo.class.getCanonicalName() + ".ping()");
+	// a capacity of 1 makes the test thread wait for the consumer
+	InstrumentationBasedMetadataBuilder builder = new InstrumentationBasedMetadataBuilder(1);
+	try {
+	    assertTrue(builder.isPipelined());
+	    for (int i = 0; i < 20; i++) {
+		InvocationTracker tracker = InvocationTracker.begin("pipelined" + i);
+		tracker.addInvokedMethod(i % 2 == 0 ? echoId : pingId);
+		InvocationTracker.end("pipelined" + i);
+		builder.performBuildStep(tracker, "org.foo.PipelinedTest", "test" + i, null, null);
+	    }
+	    TestsMetadata metadata = builder.getMetadata();
+	    assertThat(metadata.getAllTestMethods().size(), is(20));
+	    assertThat(metadata.getTestMethodsFor(Foo.class, Foo.class.getMethod("echo", String.class)).size(), is(10));
+	    assertThat(metadata.getTestMethodsFor(Foo.class, Foo.class.getMethod("ping")).size(), is(10));
+	    builder.reset();
+	    assertThat(builder.getMetadata().getAllTestMethods().size(), is(0));
+	} finally {
+	    builder.close();
+	}
+    }
+    
+    @Test
+    public void testPipelineShouldSurviveFailedBuildSteps() throws Exception
+    {
+	int echoId = MethodRegistry.getInstance().register(Foo.class.getCanonicalName(), Foo.class.getCanonicalName() + ".echo(java.lang.String)");
+	InstrumentationBasedMetadataBuilder builder = new InstrumentationBasedMetadataBuilder(1) {
+	    @Override
+	    void performBuildStep(BitSet invoked, InvocationTracker counts, String testClass, String testMethod, String[] parameterTypes, StatusMetadata status) {
+		if (testMethod.equals("broken")) {
+		    throw new AssertionError("broken build step");
+		}
+		super.performBuildStep(invoked, counts, testClass, testMethod, parameterTypes, status);
+	    }
+	};
+	try {
+	    for (String method : new String[] { "broken", "test" }) {
+		InvocationTracker tracker = InvocationTracker.begin(method);
+		tracker.addInvokedMethod(echoId);
+		InvocationTracker.end(method);
+		builder.performBuildStep(tracker, "org.foo.PipelinedTest", method, null, null);
+	    }
+	    try {
+		builder.flush();
+		fail("The failure of the build step should have been reported");
+	    } catch (AssertionError e) {
+		assertThat(e.getMessage(), is("broken build step"));
+	    }
+	    // the following steps are still performed
+	    assertThat(builder.getMetadata().getAllTestMethods().size(), is(1));
+	} finally {
+	    builder.close();
+	}
+    }
+    
     public void myTestingMethod(String par)
     {
 	//NOOP
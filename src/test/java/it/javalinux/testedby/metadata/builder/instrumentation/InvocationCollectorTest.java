@@ -0,0 +1,127 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import it.javalinux.testedby.metadata.MethodLinkMetadata;
+import it.javalinux.testedby.metadata.StatusMetadata;
+import it.javalinux.testedby.metadata.TestsMetadata;
+import it.javalinux.testedby.testsupport.instrumentation.Foo;
+
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests the collection of the invocations published by other JVMs
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class InvocationCollectorTest {
+
+    private static final String FOO = Foo.class.getCanonicalName();
+
+    @Test
+    public void shouldMergeTheInvocationsOfAllPublishers() throws Exception {
+	InstrumentationBasedMetadataBuilder builder = new InstrumentationBasedMetadataBuilder();
+	InvocationCollector collector = new InvocationCollector(builder);
+	assertTrue(collector.getSystemProperty().startsWith("-Dtestedby.collector=127.0.0.1:"));
+	// one publisher for each forked JVM
+	InvocationPublisher first = new InvocationPublisher(collector.getAddress());
+	InvocationPublisher second = new InvocationPublisher(collector.getAddress());
+	StatusMetadata status = new StatusMetadata(true, true, false, true);
+	status.setPassedOnLastRun(true);
+	status.setWallTimeNanos(1000000).setCpuTimeNanos(500000).setAllocatedBytes(4096);
+	first.publish("org.foo.FirstTest", "testBar", null, status, getInvocations(FOO + ".bar()"), Collections.singletonMap(FOO + ".bar()", 42L));
+	// a record that can't be serialized is skipped, the following ones are still published
+	first.publish("org.foo.FirstTest", new String(new char[70000]).replace('\0', 'x'), null, null, getInvocations(FOO + ".bar()"), null);
+	second.publish("org.foo.SecondTest", "testBar", new String[] {}, null, getInvocations(FOO + ".bar()"), null);
+	second.publish("org.foo.SecondTest", "testFoo", null, null, getInvocations(FOO + "()"), null);
+	first.close();
+	second.close();
+	collector.close(10000);
+
+	assertThat(collector.getCollectedRecords(), is(3L));
+	TestsMetadata metadata = builder.getMetadata();
+	assertThat(metadata.getAllTestClasses().size(), is(2));
+	assertThat(metadata.getAllTestMethods().size(), is(3));
+	assertThat(metadata.getAllTestedClasses().size(), is(1));
+	List<MethodLinkMetadata> tests = metadata.getTestMethodsFor(Foo.class, Foo.class.getMethod("bar"));
+	assertThat(tests.size(), is(2));
+	for (MethodLinkMetadata test : tests) {
+	    if (test.getClazz().equals("org.foo.FirstTest")) {
+		assertTrue(test.getStatus().isPassedOnLastRun());
+		assertTrue(test.getStatus().isJustCreated());
+		assertThat(test.getStatus().getWallTimeNanos(), is(1000000L));
+		assertThat(test.getStatus().getAllocatedBytes(), is(4096L));
+		assertThat(test.getStatus().getInvocationCount(), is(42L));
+	    } else {
+		assertTrue(test.getStatus().isFailedOnLastRun());
+		assertThat(test.getStatus().getInvocationCount(), is(0L));
+	    }
+	}
+    }
+
+    @Test
+    public void shouldCloseTheConnectionsSendingOversizedRecords() throws Exception {
+	InstrumentationBasedMetadataBuilder builder = new InstrumentationBasedMetadataBuilder();
+	InvocationCollector collector = new InvocationCollector(builder);
+	String address = collector.getAddress();
+	int i = address.indexOf(':');
+	Socket socket = new Socket(address.substring(0, i), Integer.parseInt(address.substring(i + 1)));
+	socket.setSoTimeout(10000);
+	DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+	out.writeInt(InvocationPublisher.PROTOCOL_VERSION);
+	out.writeInt(InvocationPublisher.MAX_RECORD_LENGTH + 1);
+	out.flush();
+	// the record is not allocated, the connection is closed instead
+	assertThat(socket.getInputStream().read(), is(-1));
+	socket.close();
+	for (int n = 0; n < 100 && collector.getActiveConnections() > 0; n++) {
+	    Thread.sleep(100);
+	}
+	assertThat(collector.getActiveConnections(), is(0));
+	// other publishers are not affected
+	InvocationPublisher publisher = new InvocationPublisher(address);
+	publisher.publish("org.foo.FirstTest", "testBar", null, null, getInvocations(FOO + ".bar()"), null);
+	publisher.close();
+	collector.close(10000);
+	assertThat(collector.getCollectedRecords(), is(1L));
+	assertThat(collector.getActiveConnections(), is(0));
+    }
+
+    private static Map<String, Set<String>> getInvocations(String method) {
+	Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+	map.put(FOO, Collections.singleton(method));
+	return map;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+
+/**
+ * Tests for the per-thread invocation buffers of the tracker
+ * 
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class InvocationTrackerTest {
+
+    private static final int THREADS = 8;
+
+    private static final int METHODS = 500;
+
+    @Test
+    public void shouldMergeTheInvocationsOfAllThreads() throws Exception {
+	final int[] ids = new int[METHODS];
+	for (int i = 0; i < METHODS; i++) {
+	    ids[i] = MethodRegistry.getInstance().register("org.foo.Bar" + (i % 10), "org.foo.Bar" + (i % 10) + ".m" + i + "()");
+	}
+	InvocationTracker.cleanUp();
+	TrackerStats.getInstance().reset();
+	final InvocationTracker tracker = InvocationTracker.getInstance();
+	Thread[] threads = new Thread[THREADS];
+	for (int t = 0; t < THREADS; t++) {
+	    final int offset = t;
+	    threads[t] = new Thread() {
+		@Override
+		public void run() {
+		    // the tracker is inherited from the test thread
+		    for (int i = offset; i < METHODS; i += THREADS) {
+			InvocationTracker.getInstance().addInvokedMethod(ids[i]);
+			InvocationTracker.getInstance().addInvokedMethod(ids[i]);
+		    }
+		}
+	    };
+	    threads[t].start();
+	}
+	for (Thread t : threads) {
+	    t.join();
+	}
+	Map<String, Set<String>> map = tracker.getInvokedMethodMap();
+	assertThat(map.size(), is(10));
+	int count = 0;
+	for (Set<String> methods : map.values()) {
+	    count += methods.size();
+	}
+	assertThat(count, is(METHODS));
+	assertThat(TrackerStats.getInstance().getLastTestProbeCalls(), is(2L * METHODS));
+    }
+
+    @Test
+    public void shouldKeepCollectingAfterAMerge() throws Exception {
+	int first = MethodRegistry.getInstance().register("org.foo.Baz", "org.foo.Baz.first()");
+	int second = MethodRegistry.getInstance().register("org.foo.Baz", "org.foo.Baz.second()");
+	InvocationTracker.cleanUp();
+	InvocationTracker tracker = InvocationTracker.getInstance();
+	tracker.addInvokedMethod(first);
+	assertThat(tracker.getInvokedMethodMap().get("org.foo.Baz").size(), is(1));
+	tracker.addInvokedMethod(second);
+	assertThat(tracker.getInvokedMethodMap().get("org.foo.Baz").size(), is(2));
+	// a new tracker doesn't see the invocations of the previous one
+	InvocationTracker.cleanUp();
+	assertTrue(InvocationTracker.getInstance().getInvokedMethodMap().isEmpty());
+	InvocationTracker.getInstance().addInvokedMethod(second);
+	assertThat(InvocationTracker.getInstance().getInvokedMethodMap().get("org.foo.Baz").size(), is(1));
+    }
+
+    @Test
+    public void shouldHandOffTheTrackerAtTestBoundaries() throws Exception {
+	int first = MethodRegistry.getInstance().register("org.foo.Handed", "org.foo.Handed.first()");
+	int second = MethodRegistry.getInstance().register("org.foo.Handed", "org.foo.Handed.second(int, java.lang.String)");
+	InvocationTracker.cleanUp();
+	InvocationTracker tracker = InvocationTracker.getInstance();
+	tracker.addInvokedMethod(first);
+	tracker.addInvokedMethod(second);
+	assertTrue(InvocationTracker.handOff() == tracker);
+	// the next test records into a new tracker
+	assertTrue(InvocationTracker.getInstance() != tracker);
+	InvocationTracker.getInstance().addInvokedMethod(first);
+	BitSet invoked = tracker.getInvokedMethods();
+	assertThat(invoked.cardinality(), is(2));
+	assertTrue(invoked.get(first) && invoked.get(second));
+	// no copy is made
+	assertTrue(tracker.getInvokedMethods() == invoked);
+	assertThat(MethodRegistry.getInstance().getMethodName(second), is("second"));
+	assertThat(MethodRegistry.getInstance().getMethodParameterTypes(second).length, is(2));
+	InvocationTracker.cleanUp();
+    }
+
+    @Test
+    public void shouldTrackConcurrentTestsInTheirOwnContext() throws Exception {
+	final int[] ids = new int[THREADS];
+	for (int t = 0; t < THREADS; t++) {
+	    ids[t] = MethodRegistry.getInstance().register("org.foo.Ctx", "org.foo.Ctx.m" + t + "()");
+	}
+	final InvocationTracker[] trackers = new InvocationTracker[THREADS];
+	final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+	Thread[] threads = new Thread[THREADS];
+	for (int t = 0; t < THREADS; t++) {
+	    final int n = t;
+	    threads[t] = new Thread() {
+		@Override
+		public void run() {
+		    try {
+			InvocationTracker tracker = InvocationTracker.begin("org.foo.CtxTest#test" + n);
+			// all the tests are running at the same time
+			barrier.await();
+			InvocationTracker.getInstance().addInvokedMethod(ids[n]);
+			barrier.await();
+			trackers[n] = InvocationTracker.end("org.foo.CtxTest#test" + n);
+			assertTrue(trackers[n] == tracker);
+		    } catch (Exception e) {
+			throw new RuntimeException(e);
+		    }
+		}
+	    };
+	    threads[t].start();
+	}
+	for (Thread t : threads) {
+	    t.join();
+	}
+	for (int t = 0; t < THREADS; t++) {
+	    BitSet invoked = trackers[t].getInvokedMethods();
+	    assertThat(invoked.cardinality(), is(1));
+	    assertTrue(invoked.get(ids[t]));
+	}
+	assertTrue(InvocationTracker.getContext("org.foo.CtxTest#test0") == null);
+    }
+
+    @Test
+    public void shouldNotBeginTheSameTestTwice() throws Exception {
+	InvocationTracker.begin("org.foo.CtxTest#twice");
+	try {
+	    InvocationTracker.begin("org.foo.CtxTest#twice");
+	    fail("IllegalStateException expected");
+	} catch (IllegalStateException e) {
+	    // expected
+	} finally {
+	    InvocationTracker.end("org.foo.CtxTest#twice");
+	}
+	assertTrue(InvocationTracker.end("org.foo.CtxTest#twice") == null);
+    }
+
+    @Test
+    public void shouldKeepTheTestsRunOnTheSameThreadApart() throws Exception {
+	int first = MethodRegistry.getInstance().register("org.foo.Reused", "org.foo.Reused.first()");
+	int second = MethodRegistry.getInstance().register("org.foo.Reused", "org.foo.Reused.second()");
+	InvocationTracker tracker = InvocationTracker.begin("org.foo.CtxTest#first");
+	InvocationTracker.getInstance().addInvokedMethod(first);
+	assertTrue(InvocationTracker.end("org.foo.CtxTest#first") == tracker);
+	InvocationTracker next = InvocationTracker.begin("org.foo.CtxTest#second");
+	InvocationTracker.getInstance().addInvokedMethod(second);
+	InvocationTracker.end("org.foo.CtxTest#second");
+	assertThat(tracker.getInvokedMethods().get(first), is(true));
+	assertThat(tracker.getInvokedMethods().get(second), is(false));
+	assertThat(next.getInvokedMethods().get(first), is(false));
+	assertThat(next.getInvokedMethods().get(second), is(true));
+    }
+
+    @Test
+    public void shouldNotLoseTheInvocationsRecordedWhileReleasing() throws Exception {
+	final int[] ids = new int[METHODS];
+	for (int i = 0; i < METHODS; i++) {
+	    ids[i] = MethodRegistry.getInstance().register("org.foo.Late", "org.foo.Late.m" + i + "()");
+	}
+	InvocationTracker.cleanUp();
+	final InvocationTracker tracker = InvocationTracker.getInstance();
+	final CyclicBarrier barrier = new CyclicBarrier(2);
+	Thread thread = new Thread() {
+	    @Override
+	    public void run() {
+		try {
+		    barrier.await();
+		} catch (Exception e) {
+		    throw new RuntimeException(e);
+		}
+		// still recording into the tracker while it's handed off
+		for (int i = 0; i < METHODS; i++) {
+		    tracker.addInvokedMethod(ids[i]);
+		}
+	    }
+	};
+	thread.start();
+	barrier.await();
+	assertTrue(InvocationTracker.handOff() == tracker);
+	thread.join();
+	// a late invocation from a thread whose buffer has been released
+	tracker.addInvokedMethod(ids[0]);
+	BitSet invoked = tracker.getInvokedMethods();
+	for (int i = 0; i < METHODS; i++) {
+	    assertTrue(invoked.get(ids[i]));
+	}
+	InvocationTracker.cleanUp();
+    }
+
+    @Test
+    public void shouldShareTheTrackerInSharedContext() throws Exception {
+	final int[] ids = new int[METHODS];
+	for (int i = 0; i < METHODS; i++) {
+	    ids[i] = MethodRegistry.getInstance().register("org.foo.Qux" + (i % 10), "org.foo.Qux" + (i % 10) + ".m" + i + "()");
+	}
+	InvocationTracker.setSharedContext(true);
+	try {
+	    final InvocationTracker tracker = InvocationTracker.getInstance();
+	    Runnable task = new Runnable() {
+		public void run() {
+		    for (int i = 0; i < METHODS; i++) {
+			InvocationTracker.getInstance().addInvokedMethod(ids[i]);
+		    }
+		}
+	    };
+	    // no wrapping is required, any thread sees the same tracker
+	    assertTrue(InvocationTracker.wrap(task) == task);
+	    Thread[] threads = new Thread[THREADS];
+	    for (int t = 0; t < THREADS; t++) {
+		threads[t] = new Thread(task);
+		threads[t].start();
+	    }
+	    for (Thread t : threads) {
+		t.join();
+	    }
+	    Map<String, Set<String>> map = tracker.getInvokedMethodMap();
+	    assertThat(map.size(), is(10));
+	    int count = 0;
+	    for (Set<String> methods : map.values()) {
+		count += methods.size();
+	    }
+	    assertThat(count, is(METHODS));
+	    assertThat(TrackerStats.getInstance().getLastTestProbeCalls(), is((long) THREADS * METHODS));
+	    InvocationTracker.cleanUp();
+	    assertTrue(InvocationTracker.getInstance().getInvokedMethodMap().isEmpty());
+	} finally {
+	    InvocationTracker.setSharedContext(false);
+	}
+    }
+}
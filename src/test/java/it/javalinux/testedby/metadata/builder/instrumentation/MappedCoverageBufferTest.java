@@ -0,0 +1,93 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.metadata.builder.instrumentation;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for the memory-mapped coverage buffer
+ *
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class MappedCoverageBufferTest {
+
+    @Test
+    public void shouldRecoverTheInvocationsFromTheFile() throws Exception {
+	File file = File.createTempFile("testedby", ".coverage");
+	file.deleteOnExit();
+	new File(file.getPath() + ".methods").deleteOnExit();
+	// method ids are JVM wide, other tests may have registered some already
+	MappedCoverageBuffer.setInstance(new MappedCoverageBuffer(file, 4, MethodRegistry.getInstance().size() + 3));
+	try {
+	    final int first = MethodRegistry.getInstance().register("org.foo.Mapped", "org.foo.Mapped.first()");
+	    final int second = MethodRegistry.getInstance().register("org.foo.Mapped", "org.foo.Mapped.second()");
+	    int other = MethodRegistry.getInstance().register("org.foo.Other", (String) null);
+
+	    InvocationTracker.cleanUp();
+	    InvocationTracker tracker = InvocationTracker.getInstance();
+	    // no slot is used outside of a test
+	    tracker.addInvokedMethod(other);
+	    InvocationTracker.cleanUp();
+	    tracker = InvocationTracker.getInstance();
+	    tracker.setTestClass("org.foo.FirstTest");
+	    tracker.setTestMethod("test");
+	    tracker.addInvokedMethod(first);
+	    Thread thread = new Thread() {
+		@Override
+		public void run() {
+		    InvocationTracker.getInstance().addInvokedMethod(second);
+		}
+	    };
+	    thread.start();
+	    thread.join();
+
+	    InvocationTracker.cleanUp();
+	    tracker = InvocationTracker.getInstance();
+	    tracker.setTestClass("org.foo.SecondTest");
+	    tracker.setTestMethod("test");
+	    tracker.addInvokedMethod(other);
+
+	    // read the file while it's still mapped, as if the JVM had crashed
+	    Map<String, Map<String, Set<String>>> tests = MappedCoverageBuffer.read(file);
+	    assertThat(tests.size(), is(2));
+	    Map<String, Set<String>> map = tests.get("org.foo.FirstTest#test");
+	    assertThat(map.size(), is(1));
+	    assertThat(map.get("org.foo.Mapped").size(), is(2));
+	    assertTrue(map.get("org.foo.Mapped").contains("org.foo.Mapped.second()"));
+	    map = tests.get("org.foo.SecondTest#test");
+	    assertThat(map.size(), is(1));
+	    assertTrue(map.get("org.foo.Other").isEmpty());
+	} finally {
+	    MappedCoverageBuffer.setInstance(null);
+	    InvocationTracker.cleanUp();
+	}
+    }
+}
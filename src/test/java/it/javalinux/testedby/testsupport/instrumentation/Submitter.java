@@ -0,0 +1,52 @@
+/*
+ * Stefano Maestri, javalinuxlabs.org Copyright 2008, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors. 
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package it.javalinux.testedby.testsupport.instrumentation;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * A class submitting tasks to an executor
+ * 
+ * @author alessio.soldano@javalinux.it
+ * @since 18-Oct-2026
+ *
+ */
+public class Submitter {
+
+    public static void submit(ExecutorService executor, Runnable task) throws Exception
+    {
+	executor.submit(task).get();
+    }
+
+    public static <T> T submit(ExecutorService executor, Callable<T> task) throws Exception
+    {
+	return executor.invokeAll(Collections.singletonList(task)).get(0).get();
+    }
+
+    public static <T> T supply(ExecutorService executor, Supplier<T> task) throws Exception
+    {
+	return CompletableFuture.supplyAsync(task, executor).get();
+    }
+}